@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of building the _id strings that every request looks up or writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyBenchmark
+{
+    @Param({"UNIFORM", "ZIPFIAN", "SCRAMBLED_ZIPFIAN", "HOTSPOT", "LATEST"})
+    public String distribution;
+
+    private Topology topology;
+    private StressWorker worker;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Session session = new Session(new String[] { "-t", "50", "-n", "10000000", "-D", distribution, "--shared-client" });
+
+        topology    = new Topology(session);
+        worker      = new StressWorker(session, 7, topology, new WorkerStats(1), new WorkerThreadFactory(false, 0));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        topology.close();
+    }
+
+    @Benchmark
+    public String nextInsertKey()
+    {
+        return worker.nextInsertKey();
+    }
+
+    @Benchmark
+    public String randomRequestKey()
+    {
+        return worker.randomRequestKey();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.mongodb.*;
+
+/**
+ * Cost of building and encoding the documents that INSERT sends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark
+{
+    @Param({"5", "20"})
+    public int columns;
+
+    @Param({"STRING", "STRING,NUMBER,BINARY,NESTED"})
+    public String fieldTypes;
+
+    private PayloadGenerator payload;
+    private BasicDBObject document;
+    private DefaultDBEncoder encoder;
+
+    @Setup
+    public void setUp()
+    {
+        payload   = new PayloadGenerator(columns, 3, fieldTypes.split(","), 34, 34);
+        document  = payload.newDocument();
+        encoder   = new DefaultDBEncoder();
+    }
+
+    @Benchmark
+    public BasicDBObject newDocument()
+    {
+        return payload.newDocument();
+    }
+
+    @Benchmark
+    public BasicDBObject fill()
+    {
+        payload.fill(document);
+        return document;
+    }
+
+    @Benchmark
+    public byte[] encode()
+    {
+        return encoder.encode(document);
+    }
+}
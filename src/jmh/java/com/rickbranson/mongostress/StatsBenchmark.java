@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of recording a request in WorkerStats, with a lane to itself, with
+ * every thread sharing one lane, and while the status thread drains it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatsBenchmark
+{
+    private static final long LATENCY_NANOS = 850 * 1000;
+
+    @State(Scope.Thread)
+    public static class OwnLane
+    {
+        final WorkerStats stats = new WorkerStats(1);
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedLane
+    {
+        final WorkerStats stats = new WorkerStats(1);
+    }
+
+    @State(Scope.Group)
+    public static class DrainedLane
+    {
+        final WorkerStats stats = new WorkerStats(1);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordOwnLane(OwnLane lane)
+    {
+        lane.stats.recordRequest(0, 1, LATENCY_NANOS);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordSharedLane(SharedLane lane)
+    {
+        lane.stats.recordRequest(0, 1, LATENCY_NANOS);
+    }
+
+    @Benchmark
+    @Group("drained")
+    @GroupThreads(3)
+    public void record(DrainedLane lane)
+    {
+        lane.stats.recordRequest(0, 1, LATENCY_NANOS);
+    }
+
+    @Benchmark
+    @Group("drained")
+    @GroupThreads(1)
+    public Histogram drain(DrainedLane lane)
+    {
+        lane.stats.swap();
+        return lane.stats.getIntervalHistogram(WorkerStats.LATENCY, 0);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * Runs workers for a coordinator: takes the workload and this agent's
+ * slice of it from the coordinator, starts when it says so, and sends it
+ * the results.
+ */
+public class Agent
+{
+    private final String host;
+    private final int port;
+
+    public Agent(String address)
+    {
+        int colon = address.lastIndexOf(':');
+
+        if (colon < 0)
+        {
+            throw new IllegalArgumentException("--agent needs HOST:PORT: " + address);
+        }
+
+        host = address.substring(0, colon);
+        port = Integer.parseInt(address.substring(colon + 1));
+    }
+
+    public void run() throws Exception
+    {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+
+        final DataInputStream in   = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        try
+        {
+            ClusterProtocol.expect(in, ClusterProtocol.SETUP);
+
+            int index           = in.readInt();
+            int count           = in.readInt();
+            Session session     = new Session(ClusterProtocol.readArguments(in));
+
+            if (!session.isValid())
+            {
+                return;
+            }
+
+            System.err.println("Running as agent " + (index + 1) + " of " + count);
+            session.joinCluster(index, count, new ClusterSink(out));
+
+            MongoStress.run(session, new StressRunner(session)
+            {
+                protected void awaitStart() throws IOException
+                {
+                    out.writeByte(ClusterProtocol.READY);
+                    out.flush();
+                    ClusterProtocol.expect(in, ClusterProtocol.START);
+                }
+            });
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+}
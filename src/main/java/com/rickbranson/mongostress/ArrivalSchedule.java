@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands out the intended start times of one worker's share of an open-loop
+ * target rate. Each active worker gets rate / active workers, with fixed
+ * schedules offset from each other so the combined arrivals stay evenly
+ * spaced; the share is recomputed whenever the number of active workers
+ * changes, so phases and auto-tune steps keep the same total rate. Poisson
+ * arrivals draw exponential gaps, and the sum of the per-worker Poisson
+ * processes is itself Poisson at the full target rate.
+ *
+ * Start times never wait on the previous op: if a worker falls behind it
+ * issues the overdue ops back to back, and their latency is measured from
+ * the time they should have been sent.
+ */
+public class ArrivalSchedule
+{
+    private final double targetRate;
+    private final boolean poisson;
+    private double meanIntervalNanos;
+    private long initialOffsetNanos;
+    private int workerCount;
+    private final Random rng;
+    private long next = 0;
+
+    public ArrivalSchedule(double targetRate, int threadCount, int threadId, boolean poisson)
+    {
+        this.targetRate         = targetRate;
+        this.poisson            = poisson;
+        this.rng                = new Random();
+
+        setWorkers(threadCount, threadId);
+    }
+
+    /**
+     * Shares the target rate between workerCount workers, this one being
+     * the slot'th of them. Requests already scheduled keep their start
+     * times; the new spacing applies from the next one.
+     */
+    public void setWorkers(int workerCount, int slot)
+    {
+        this.workerCount        = workerCount;
+        this.meanIntervalNanos  = (1000.0 * 1000 * 1000 * workerCount) / targetRate;
+        this.initialOffsetNanos = (long)((meanIntervalNanos * slot) / workerCount);
+    }
+
+    /**
+     * Number of workers the target rate is currently shared between.
+     */
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    /**
+     * Starts the schedule afresh from the next call, so a worker coming back
+     * from idle does not owe the requests it skipped while idle.
+     */
+    public void restart()
+    {
+        next = 0;
+    }
+
+    /**
+     * Returns the intended start time of the next op and parks the calling
+     * thread until then.
+     */
+    public long awaitNextStartTime()
+    {
+        if (next == 0)
+        {
+            next = System.nanoTime() + initialOffsetNanos;
+        }
+
+        final long intended = next;
+
+        next += poisson ? (long)(-Math.log(1.0 - rng.nextDouble()) * meanIntervalNanos) : (long)meanIntervalNanos;
+
+        long remaining;
+
+        while ((remaining = intended - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+        }
+
+        return intended;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes to a Writer from a background thread, so the status thread never
+ * waits on a slow disk or terminal. Without a Writer it just runs tasks
+ * in order on that thread.
+ */
+public class AsyncWriter
+{
+    private final Writer out;
+    private final boolean closeOut;
+    private final ExecutorService executor;
+    private volatile boolean failed = false;
+
+    public AsyncWriter(Writer out, boolean closeOut, final String name)
+    {
+        this.out      = out;
+        this.closeOut = closeOut;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static AsyncWriter forFile(String path) throws IOException
+    {
+        return new AsyncWriter(new BufferedWriter(new FileWriter(path)), true, "writer-" + new File(path).getName());
+    }
+
+    public static AsyncWriter forStdout()
+    {
+        return new AsyncWriter(new OutputStreamWriter(System.out), false, "writer-stdout");
+    }
+
+    public void write(final String text)
+    {
+        execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    out.write(text);
+                    out.flush();
+                }
+                catch (IOException ex)
+                {
+                    fail(ex);
+                }
+            }
+        });
+    }
+
+    public void println(String line)
+    {
+        write(line + System.getProperty("line.separator"));
+    }
+
+    /**
+     * Runs a task on the writer thread, in order with the writes.
+     */
+    public void execute(Runnable task)
+    {
+        if (!failed)
+        {
+            executor.execute(task);
+        }
+    }
+
+    public void fail(Exception ex)
+    {
+        if (!failed)
+        {
+            failed = true;
+            System.err.println("Unable to write results: " + ex.getMessage());
+        }
+    }
+
+    public void close() throws IOException
+    {
+        executor.shutdown();
+
+        try
+        {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException ex)
+        {
+        }
+
+        if (out == null)
+        {
+            return;
+        }
+
+        if (closeOut)
+        {
+            out.close();
+        }
+        else
+        {
+            out.flush();
+        }
+    }
+}
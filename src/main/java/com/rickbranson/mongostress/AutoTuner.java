@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+
+/**
+ * Looks for the knee of the throughput curve. The run's phases add
+ * workers a step at a time, and after each step the tuner decides whether
+ * to go on: it stops once a step's p99 latency passes the SLO, or once
+ * throughput has failed to grow by the plateau fraction for PLATEAU_STEPS
+ * steps in a row. The knee is the step with the highest throughput that
+ * stayed within the SLO.
+ */
+public class AutoTuner
+{
+    public static final String STEP_PREFIX = "tune-";
+    public static final int PLATEAU_STEPS = 2;
+
+    private final long sloMicros;
+    private final double plateau;
+    private int flatSteps = 0;
+    private Phase knee = null;
+    private double kneeRate = 0;
+    private long kneeLatency = 0;
+
+    public AutoTuner(double sloMillis, double plateau)
+    {
+        this.sloMicros  = (long)(sloMillis * 1000);
+        this.plateau    = plateau;
+    }
+
+    /**
+     * Phases of stepThreads, 2 * stepThreads, ... workers, ending with
+     * maxThreads, each held for seconds.
+     */
+    public static List<Phase> steps(int stepThreads, int maxThreads, int seconds)
+    {
+        List<Phase> phases = new ArrayList<Phase>();
+
+        for (int threads = stepThreads; threads < maxThreads + stepThreads; threads += stepThreads)
+        {
+            int stepped = Math.min(threads, maxThreads);
+            phases.add(new Phase(STEP_PREFIX + stepped, stepped, seconds, false, true));
+        }
+
+        return phases;
+    }
+
+    /**
+     * Takes the throughput and p99 latency of a finished step, and returns
+     * whether the next step should run.
+     */
+    public boolean stepFinished(Phase step, double opRate, long p99Micros)
+    {
+        if (p99Micros > sloMicros)
+        {
+            return false;
+        }
+
+        boolean grew = knee == null || opRate > kneeRate * (1 + plateau);
+
+        if (knee == null || opRate > kneeRate)
+        {
+            knee        = step;
+            kneeRate    = opRate;
+            kneeLatency = p99Micros;
+        }
+
+        flatSteps = grew ? 0 : flatSteps + 1;
+
+        return flatSteps < PLATEAU_STEPS;
+    }
+
+    /**
+     * The step with the highest throughput within the SLO, or null if none
+     * stayed within it.
+     */
+    public Phase getKnee()
+    {
+        return knee;
+    }
+
+    public String describe()
+    {
+        if (knee == null)
+        {
+            return String.format("No step kept p99 latency within %.3f ms", sloMicros / 1000.0);
+        }
+
+        return String.format("Maximum sustainable throughput: %.0f ops/s with %d workers, p99 latency %.3f ms (SLO %.3f ms)",
+                             kneeRate, knee.getThreads(), kneeLatency / 1000.0, sloMicros / 1000.0);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Messages between the coordinator and its agents. The coordinator sends
+ * SETUP (agent index, agent count and its command line) and, once every
+ * agent has answered READY, START. Agents then send an INTERVAL of result
+ * rows per status interval and a SUMMARY before they hang up.
+ */
+public class ClusterProtocol
+{
+    public static final byte SETUP    = 1;
+    public static final byte READY    = 2;
+    public static final byte START    = 3;
+    public static final byte INTERVAL = 4;
+    public static final byte SUMMARY  = 5;
+
+    public static void expect(DataInputStream in, byte message) throws IOException
+    {
+        byte received = in.readByte();
+
+        if (received != message)
+        {
+            throw new IOException("Expected message " + message + " but received " + received);
+        }
+    }
+
+    public static void writeSetup(DataOutputStream out, int index, int count, String[] arguments) throws IOException
+    {
+        out.writeByte(SETUP);
+        out.writeInt(index);
+        out.writeInt(count);
+        out.writeInt(arguments.length);
+
+        for (String argument : arguments)
+        {
+            out.writeUTF(argument);
+        }
+
+        out.flush();
+    }
+
+    public static String[] readArguments(DataInputStream in) throws IOException
+    {
+        String[] arguments = new String[in.readInt()];
+
+        for (int i = 0; i < arguments.length; i++)
+        {
+            arguments[i] = in.readUTF();
+        }
+
+        return arguments;
+    }
+
+    /**
+     * Encodes a message of rows, copying the histograms, which are only
+     * valid for the duration of a sink call.
+     */
+    public static byte[] encodeRows(byte message, List<ResultRow> rows) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out        = new DataOutputStream(bytes);
+        ByteBuffer buffer           = null;
+
+        out.writeByte(message);
+        out.writeInt(rows.size());
+
+        for (ResultRow row : rows)
+        {
+            out.writeUTF(row.getPhase());
+            out.writeUTF(row.getOperation());
+            out.writeLong(row.getCount());
+            out.writeLong(row.getDocuments());
+            out.writeLong(row.getBytes());
+            out.writeLong(row.getTotalCount());
+            out.writeLong(row.getTotalDocuments());
+            out.writeLong(row.getTotalBytes());
+            out.writeLong(row.getNetworkBytesIn());
+            out.writeLong(row.getNetworkBytesOut());
+            out.writeDouble(row.getSeconds());
+            out.writeDouble(row.getElapsedSeconds());
+            out.writeInt(WorkerStats.SERIES_COUNT);
+
+            for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+            {
+                Histogram histogram = row.getHistogram(series);
+
+                if (buffer == null || buffer.capacity() < histogram.getNeededByteBufferCapacity())
+                {
+                    buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+                }
+
+                buffer.clear();
+
+                int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+                out.writeInt(length);
+                out.write(buffer.array(), 0, length);
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the rows of an INTERVAL or SUMMARY whose type byte has already
+     * been read.
+     */
+    public static List<ResultRow> readRows(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        List<ResultRow> rows = new ArrayList<ResultRow>(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            String phase        = in.readUTF();
+            String operation    = in.readUTF();
+            long requests       = in.readLong();
+            long documents      = in.readLong();
+            long bytes          = in.readLong();
+            long totalRequests  = in.readLong();
+            long totalDocuments = in.readLong();
+            long totalBytes     = in.readLong();
+            long networkIn      = in.readLong();
+            long networkOut     = in.readLong();
+            double seconds      = in.readDouble();
+            double elapsed      = in.readDouble();
+            Histogram[] histograms = new Histogram[in.readInt()];
+
+            for (int h = 0; h < histograms.length; h++)
+            {
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+
+                try
+                {
+                    histograms[h] = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(encoded), Session.MAX_LATENCY_MICROSECONDS);
+                }
+                catch (java.util.zip.DataFormatException ex)
+                {
+                    throw new IOException("Corrupt histogram: " + ex.getMessage());
+                }
+            }
+
+            rows.add(new ResultRow(phase, operation, requests, documents, bytes, totalRequests, totalDocuments, totalBytes, seconds, elapsed, histograms).withNetworkBytes(networkIn, networkOut));
+        }
+
+        return rows;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Sends an agent's results to its coordinator. Rows are encoded on the
+ * status thread and sent from an AsyncWriter's.
+ */
+public class ClusterSink implements ResultSink
+{
+    private final DataOutputStream out;
+    private final AsyncWriter writer = new AsyncWriter(null, false, "writer-coordinator");
+
+    public ClusterSink(DataOutputStream out)
+    {
+        this.out = out;
+    }
+
+    public void interval(List<ResultRow> rows)
+    {
+        send(ClusterProtocol.INTERVAL, rows);
+    }
+
+    public void summary(List<ResultRow> rows)
+    {
+        send(ClusterProtocol.SUMMARY, rows);
+    }
+
+    private void send(byte message, List<ResultRow> rows)
+    {
+        final byte[] encoded;
+
+        try
+        {
+            encoded = ClusterProtocol.encodeRows(message, rows);
+        }
+        catch (IOException ex)
+        {
+            writer.fail(ex);
+            return;
+        }
+
+        writer.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    out.write(encoded);
+                    out.flush();
+                }
+                catch (IOException ex)
+                {
+                    writer.fail(ex);
+                }
+            }
+        });
+    }
+
+    public void close() throws IOException
+    {
+        writer.close();
+        out.close();
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Hands the workload to --coordinator agents, starts them together, and
+ * reports their results merged interval by interval: counts and document
+ * counts are summed and latency histograms added, so the rates and
+ * percentiles are those of the whole cluster.
+ */
+public class Coordinator
+{
+    static final byte LOST = 0;
+
+    private final Session session;
+    private final String[] arguments;
+
+    /**
+     * arguments is the coordinator's own command line, which becomes each
+     * agent's.
+     */
+    public Coordinator(Session session, String[] arguments)
+    {
+        this.session    = session;
+        this.arguments  = arguments;
+    }
+
+    public void run() throws Exception
+    {
+        final int count = session.getCoordinatedAgentCount();
+        final List<AgentConnection> agents = new ArrayList<AgentConnection>();
+        final ServerSocket server = new ServerSocket(session.getCoordinatorPort());
+
+        System.err.println("Waiting for " + count + " agents on port " + server.getLocalPort());
+
+        try
+        {
+            while (agents.size() < count)
+            {
+                agents.add(new AgentConnection(server.accept()));
+                System.err.println("Agent " + agents.size() + " of " + count + " connected from " + agents.get(agents.size() - 1).getAddress());
+            }
+        }
+        finally
+        {
+            server.close();
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            ClusterProtocol.writeSetup(agents.get(i).out, i, count, arguments);
+        }
+
+        for (AgentConnection agent : agents)
+        {
+            ClusterProtocol.expect(agent.in, ClusterProtocol.READY);
+        }
+
+        for (AgentConnection agent : agents)
+        {
+            agent.out.writeByte(ClusterProtocol.START);
+            agent.out.flush();
+            agent.startReading();
+        }
+
+        ServerStatsSampler sampler = session.isServerStatsSampled() ? new ServerStatsSampler(session) : null;
+        List<AgentResults> results = new ArrayList<AgentResults>();
+
+        for (AgentConnection agent : agents)
+        {
+            results.add(agent.results);
+        }
+
+        try
+        {
+            report(results, session.createResultSinks(), sampler, session.getStatusInterval());
+        }
+        finally
+        {
+            if (sampler != null)
+            {
+                sampler.close();
+            }
+
+            for (AgentConnection agent : agents)
+            {
+                agent.close();
+            }
+        }
+    }
+
+    /**
+     * Merges the agents' intervals by the tick of the run they end at, not
+     * by their order, since an agent can fall behind or finish early. Each
+     * merged row carries every agent's latest running totals, those of
+     * agents that have finished included, so the cluster's totals only go
+     * up.
+     */
+    static void report(List<AgentResults> agents, List<ResultSink> sinks, ServerStatsSampler sampler, double interval) throws Exception
+    {
+        final List<List<ResultRow>> summaries = new ArrayList<List<ResultRow>>();
+
+        while (true)
+        {
+            long tick = Long.MAX_VALUE;
+
+            for (AgentResults agent : agents)
+            {
+                if (!agent.finished && agent.head == null)
+                {
+                    agent.head = agent.messages.take();
+
+                    if (agent.head.type != ClusterProtocol.INTERVAL)
+                    {
+                        finish(agent, summaries);
+                    }
+                }
+
+                if (!agent.finished)
+                {
+                    tick = Math.min(tick, agent.getTick(interval));
+                }
+            }
+
+            if (tick == Long.MAX_VALUE)
+            {
+                break;
+            }
+
+            List<List<ResultRow>> intervals = new ArrayList<List<ResultRow>>();
+
+            for (AgentResults agent : agents)
+            {
+                if (!agent.finished && agent.getTick(interval) == tick)
+                {
+                    intervals.add(agent.head.rows);
+                    agent.keepTotals(agent.head.rows);
+                    agent.head = null;
+                }
+            }
+
+            List<ResultRow> rows = withClusterTotals(merge(intervals), agents);
+
+            // The agents' intervals end together, so one sample, on the
+            // merged ALL row, covers the whole cluster's.
+            if (sampler != null)
+            {
+                attachServerStats(rows, sampler.sample(StressRunner.SERVER_STATS_WAIT));
+            }
+
+            for (ResultSink sink : sinks)
+            {
+                sink.interval(rows);
+            }
+        }
+
+        List<ResultRow> rows = merge(summaries);
+
+        for (ResultSink sink : sinks)
+        {
+            sink.summary(rows);
+            sink.close();
+        }
+    }
+
+    private static void finish(AgentResults agent, List<List<ResultRow>> summaries)
+    {
+        if (agent.head.type == ClusterProtocol.SUMMARY)
+        {
+            summaries.add(agent.head.rows);
+        }
+        else
+        {
+            System.err.println("Lost agent at " + agent.address + "; its results are left out of the summary");
+        }
+
+        agent.finished = true;
+        agent.head     = null;
+    }
+
+    /**
+     * Replaces the merged rows' running totals with the sum of every
+     * agent's latest ones for the same phase and operation.
+     */
+    private static List<ResultRow> withClusterTotals(List<ResultRow> rows, List<AgentResults> agents)
+    {
+        for (int i = 0; i < rows.size(); i++)
+        {
+            ResultRow row       = rows.get(i);
+            String key          = row.getPhase() + "/" + row.getOperation();
+            long count          = 0;
+            long documents      = 0;
+            long bytes          = 0;
+
+            for (AgentResults agent : agents)
+            {
+                ResultRow latest = agent.totals.get(key);
+
+                if (latest != null)
+                {
+                    count       += latest.getTotalCount();
+                    documents   += latest.getTotalDocuments();
+                    bytes       += latest.getTotalBytes();
+                }
+            }
+
+            rows.set(i, row.withTotals(count, documents, bytes));
+        }
+
+        return rows;
+    }
+
+    /**
+     * Adds up the rows of the same phase and operation from each agent.
+     * Periods are taken as the longest of the agents'.
+     */
+    private static List<ResultRow> merge(List<List<ResultRow>> results)
+    {
+        Map<String, ResultRow> merged = new LinkedHashMap<String, ResultRow>();
+
+        for (List<ResultRow> rows : results)
+        {
+            for (ResultRow row : rows)
+            {
+                String key    = row.getPhase() + "/" + row.getOperation();
+                ResultRow sum = merged.get(key);
+
+                merged.put(key, sum == null ? row : add(sum, row));
+            }
+        }
+
+        return new ArrayList<ResultRow>(merged.values());
+    }
+
+    private static void attachServerStats(List<ResultRow> rows, double[] sample)
+    {
+        for (int i = 0; i < rows.size(); i++)
+        {
+            if (rows.get(i).getOperation().equals("ALL"))
+            {
+                rows.set(i, rows.get(i).withServerStats(sample));
+                return;
+            }
+        }
+    }
+
+    private static ResultRow add(ResultRow a, ResultRow b)
+    {
+        Histogram[] histograms = new Histogram[WorkerStats.SERIES_COUNT];
+
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            histograms[series] = a.getHistogram(series);
+            histograms[series].add(b.getHistogram(series));
+        }
+
+        ResultRow sum = new ResultRow(a.getPhase(),
+                                      a.getOperation(),
+                                      a.getCount() + b.getCount(),
+                                      a.getDocuments() + b.getDocuments(),
+                                      a.getBytes() + b.getBytes(),
+                                      a.getTotalCount() + b.getTotalCount(),
+                                      a.getTotalDocuments() + b.getTotalDocuments(),
+                                      a.getTotalBytes() + b.getTotalBytes(),
+                                      Math.max(a.getSeconds(), b.getSeconds()),
+                                      Math.max(a.getElapsedSeconds(), b.getElapsedSeconds()),
+                                      histograms);
+
+        return sum.withNetworkBytes(addKnown(a.getNetworkBytesIn(), b.getNetworkBytesIn()), addKnown(a.getNetworkBytesOut(), b.getNetworkBytesOut()));
+    }
+
+    /**
+     * Sums two byte counts, either of which may be -1 for unknown.
+     */
+    private static long addKnown(long a, long b)
+    {
+        return a < 0 ? b : (b < 0 ? a : a + b);
+    }
+
+    static final class Message
+    {
+        final byte type;
+        final List<ResultRow> rows;
+
+        Message(byte type, List<ResultRow> rows)
+        {
+            this.type = type;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * The messages an agent has sent, and where the merge is with them.
+     */
+    static final class AgentResults
+    {
+        final String address;
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<Message>();
+        final Map<String, ResultRow> totals = new HashMap<String, ResultRow>();
+        Message head = null;
+        boolean finished = false;
+
+        AgentResults(String address)
+        {
+            this.address = address;
+        }
+
+        /**
+         * The progress tick the interval at the head ends at.
+         */
+        long getTick(double interval)
+        {
+            return head.rows.isEmpty() ? Long.MIN_VALUE : Math.round(head.rows.get(0).getElapsedSeconds() / interval);
+        }
+
+        void keepTotals(List<ResultRow> rows)
+        {
+            for (ResultRow row : rows)
+            {
+                totals.put(row.getPhase() + "/" + row.getOperation(), row);
+            }
+        }
+    }
+
+    /**
+     * An agent's socket, and once it has started, a thread queueing up the
+     * results it sends.
+     */
+    private static final class AgentConnection
+    {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final AgentResults results;
+
+        AgentConnection(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in      = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out     = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            results = new AgentResults(getAddress());
+        }
+
+        String getAddress()
+        {
+            return socket.getRemoteSocketAddress().toString();
+        }
+
+        void startReading()
+        {
+            Thread reader = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        byte type;
+
+                        do
+                        {
+                            type = in.readByte();
+
+                            if (type != ClusterProtocol.INTERVAL && type != ClusterProtocol.SUMMARY)
+                            {
+                                throw new IOException("Unexpected message " + type);
+                            }
+
+                            results.messages.add(new Message(type, ClusterProtocol.readRows(in)));
+                        }
+                        while (type != ClusterProtocol.SUMMARY);
+                    }
+                    catch (IOException ex)
+                    {
+                        results.messages.add(new Message(LOST, null));
+                    }
+                }
+            }, "agent-" + getAddress());
+
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.SocketFactory;
+
+/**
+ * Makes the driver's sockets count the bytes that go through them, so the
+ * network bandwidth a run uses can be reported next to its request rate.
+ * The counters are shared by every socket the factory makes, and striped
+ * so that workers do not contend on them.
+ */
+public class CountingSocketFactory extends SocketFactory
+{
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    public long getBytesIn()
+    {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut.sum();
+    }
+
+    public Socket createSocket()
+    {
+        return new CountingSocket();
+    }
+
+    public Socket createSocket(String host, int port) throws IOException
+    {
+        return connected(new InetSocketAddress(host, port));
+    }
+
+    public Socket createSocket(InetAddress host, int port) throws IOException
+    {
+        return connected(new InetSocketAddress(host, port));
+    }
+
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException
+    {
+        return connected(new InetSocketAddress(host, port), new InetSocketAddress(localHost, localPort));
+    }
+
+    public Socket createSocket(InetAddress host, int port, InetAddress localHost, int localPort) throws IOException
+    {
+        return connected(new InetSocketAddress(host, port), new InetSocketAddress(localHost, localPort));
+    }
+
+    private Socket connected(SocketAddress address) throws IOException
+    {
+        Socket socket = createSocket();
+        socket.connect(address);
+        return socket;
+    }
+
+    private Socket connected(SocketAddress address, SocketAddress local) throws IOException
+    {
+        Socket socket = createSocket();
+        socket.bind(local);
+        socket.connect(address);
+        return socket;
+    }
+
+    private class CountingSocket extends Socket
+    {
+        public InputStream getInputStream() throws IOException
+        {
+            return new FilterInputStream(super.getInputStream())
+            {
+                public int read() throws IOException
+                {
+                    int value = super.read();
+
+                    if (value >= 0)
+                    {
+                        bytesIn.increment();
+                    }
+
+                    return value;
+                }
+
+                public int read(byte[] buffer, int offset, int length) throws IOException
+                {
+                    int read = super.read(buffer, offset, length);
+
+                    if (read > 0)
+                    {
+                        bytesIn.add(read);
+                    }
+
+                    return read;
+                }
+            };
+        }
+
+        public OutputStream getOutputStream() throws IOException
+        {
+            return new FilterOutputStream(super.getOutputStream())
+            {
+                public void write(int value) throws IOException
+                {
+                    out.write(value);
+                    bytesOut.increment();
+                }
+
+                public void write(byte[] buffer, int offset, int length) throws IOException
+                {
+                    out.write(buffer, offset, length);
+                    bytesOut.add(length);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,1293 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
+
+/**
+ * An in-memory stand-in for mongod that speaks just enough of the wire
+ * protocol for the stress tasks: inserts, updates, deletes, queries with
+ * comparison operators, sorting and cursors, and the handful of commands
+ * the driver sends. Indexes are accepted but queries always scan. Running
+ * a workload against it shows how fast the client side alone can go.
+ */
+public class FakeMongoServer
+{
+    static final int OP_REPLY        = 1;
+    static final int OP_UPDATE       = 2001;
+    static final int OP_INSERT       = 2002;
+    static final int OP_QUERY        = 2004;
+    static final int OP_GET_MORE     = 2005;
+    static final int OP_DELETE       = 2006;
+    static final int OP_KILL_CURSORS = 2007;
+
+    private static final int HEADER_SIZE            = 16;
+    private static final int REPLY_HEADER_SIZE      = HEADER_SIZE + 20;
+    private static final int BUFFER_SIZE            = 64 * 1024;
+    private static final int MAX_BSON_SIZE          = 16 * 1024 * 1024;
+    private static final int MAX_MESSAGE_SIZE       = 2 * MAX_BSON_SIZE;
+    private static final int DEFAULT_BATCH_SIZE     = 101;
+    private static final int REPLY_CURSOR_NOT_FOUND = 1;
+    private static final int REPLY_QUERY_FAILURE    = 2;
+    private static final int INSERT_CONTINUE_ON_ERROR = 1;
+    private static final int UPDATE_UPSERT          = 1;
+    private static final int UPDATE_MULTI           = 2;
+    private static final int DELETE_SINGLE          = 1;
+    private static final int DUPLICATE_KEY          = 11000;
+    private static final Charset UTF8               = Charset.forName("UTF-8");
+    private static final String[] OPCOUNTER_NAMES   = { "insert", "query", "update", "delete", "getmore", "command" };
+    private static final int SIZE_SAMPLE            = 100;
+    private static final int ID_INDEX_ENTRY_SIZE    = 32;
+
+    private final ConcurrentMap<String, ConcurrentMap<Object, BSONObject>> collections = new ConcurrentHashMap<String, ConcurrentMap<Object, BSONObject>>();
+    private final ConcurrentMap<Long, Cursor> cursors = new ConcurrentHashMap<Long, Cursor>();
+    private final AtomicLong cursorIds = new AtomicLong();
+    private final AtomicInteger replyIds = new AtomicInteger();
+    private final AtomicLongArray opcounters = new AtomicLongArray(OPCOUNTER_NAMES.length);
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final long startedAt = System.currentTimeMillis();
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final Thread acceptor;
+    private volatile boolean closed = false;
+
+    /**
+     * Listens on address, port 0 picking a free one, and serves connections
+     * from loopCount selector threads.
+     */
+    public FakeMongoServer(InetSocketAddress address, int loopCount) throws IOException
+    {
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(address);
+
+        loops = new EventLoop[loopCount];
+
+        for (int i = 0; i < loopCount; i++)
+        {
+            loops[i] = new EventLoop();
+            newThread(loops[i], "fake-mongod-" + i).start();
+        }
+
+        acceptor = newThread(new Runnable()
+        {
+            public void run()
+            {
+                accept();
+            }
+        }, "fake-mongod-accept");
+
+        acceptor.start();
+    }
+
+    /**
+     * A server on a free loopback port, with a selector thread for every
+     * other core so it leaves the rest to the client.
+     */
+    public static FakeMongoServer startLocal(int port) throws IOException
+    {
+        int loops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return new FakeMongoServer(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), loops);
+    }
+
+    public static void main(String[] arguments) throws Exception
+    {
+        FakeMongoServer server = startLocal(arguments.length > 0 ? Integer.parseInt(arguments[0]) : 27017);
+        System.out.println("Listening on port " + server.getPort());
+        server.acceptor.join();
+    }
+
+    public String getHostname()
+    {
+        return server.socket().getInetAddress().getHostAddress();
+    }
+
+    public int getPort()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    public void close() throws IOException
+    {
+        closed = true;
+        server.close();
+
+        for (EventLoop loop : loops)
+        {
+            loop.selector.wakeup();
+        }
+    }
+
+    private static Thread newThread(Runnable runnable, String name)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void accept()
+    {
+        int next = 0;
+
+        try
+        {
+            while (!closed)
+            {
+                SocketChannel channel = server.accept();
+                channel.socket().setTcpNoDelay(true);
+                loops[next++ % loops.length].add(channel);
+            }
+        }
+        catch (IOException ex)
+        {
+            if (!closed)
+            {
+                System.err.println("Fake server stopped accepting connections: " + ex.getMessage());
+            }
+        }
+    }
+
+    private ConcurrentMap<Object, BSONObject> getCollection(String namespace)
+    {
+        ConcurrentMap<Object, BSONObject> collection = collections.get(namespace);
+
+        if (collection == null)
+        {
+            ConcurrentMap<Object, BSONObject> created = new ConcurrentHashMap<Object, BSONObject>();
+            collection = collections.putIfAbsent(namespace, created);
+            collection = (collection == null) ? created : collection;
+        }
+
+        return collection;
+    }
+
+    /**
+     * The documents in namespace matching query, looked up directly when
+     * the query is just an _id, otherwise by scanning the collection.
+     */
+    private List<BSONObject> find(String namespace, BSONObject query, int limit)
+    {
+        List<BSONObject> found = new ArrayList<BSONObject>();
+        ConcurrentMap<Object, BSONObject> collection = collections.get(namespace);
+
+        if (collection == null)
+        {
+            return found;
+        }
+
+        Object id = query.get("_id");
+
+        if (query.keySet().size() == 1 && id != null && !(id instanceof BSONObject))
+        {
+            BSONObject document = collection.get(id);
+
+            if (document != null)
+            {
+                found.add(document);
+            }
+
+            return found;
+        }
+
+        for (BSONObject document : collection.values())
+        {
+            if (matches(document, query))
+            {
+                found.add(document);
+
+                if (found.size() == limit)
+                {
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private static boolean matches(BSONObject document, BSONObject query)
+    {
+        synchronized (document)
+        {
+            for (String key : query.keySet())
+            {
+                Object condition = query.get(key);
+                Object value = getPath(document, key);
+
+                if (isOperator(condition) ? !matchesOperators(value, (BSONObject) condition) : !valueEquals(condition, value))
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isOperator(Object condition)
+    {
+        return condition instanceof BSONObject && isModifier((BSONObject) condition);
+    }
+
+    /**
+     * Checks value against $gt, $gte, $lt, $lte, $ne, $in and $exists.
+     * Comparisons only match values of the same type, as in mongod.
+     */
+    private static boolean matchesOperators(Object value, BSONObject condition)
+    {
+        for (String operator : condition.keySet())
+        {
+            Object operand = condition.get(operator);
+            boolean comparable = value != null && typeOrder(value) == typeOrder(operand);
+            int order = comparable ? compareValues(value, operand) : 0;
+            boolean match;
+
+            if ("$gt".equals(operator))
+            {
+                match = comparable && order > 0;
+            }
+            else if ("$gte".equals(operator))
+            {
+                match = comparable && order >= 0;
+            }
+            else if ("$lt".equals(operator))
+            {
+                match = comparable && order < 0;
+            }
+            else if ("$lte".equals(operator))
+            {
+                match = comparable && order <= 0;
+            }
+            else if ("$ne".equals(operator))
+            {
+                match = !valueEquals(operand, value);
+            }
+            else if ("$in".equals(operator))
+            {
+                match = false;
+
+                for (String index : ((BSONObject) operand).keySet())
+                {
+                    match |= valueEquals(((BSONObject) operand).get(index), value);
+                }
+            }
+            else if ("$exists".equals(operator))
+            {
+                match = (value != null) == Boolean.TRUE.equals(operand);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unsupported query operator: " + operator);
+            }
+
+            if (!match)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Rank of a value's type in mongod's sort order.
+     */
+    private static int typeOrder(Object value)
+    {
+        if (value == null)
+        {
+            return 0;
+        }
+        else if (value instanceof Number)
+        {
+            return 1;
+        }
+        else if (value instanceof String)
+        {
+            return 2;
+        }
+        else if (value instanceof BSONObject)
+        {
+            return 3;
+        }
+        else if (value instanceof byte[])
+        {
+            return 5;
+        }
+        else if (value instanceof ObjectId)
+        {
+            return 7;
+        }
+        else if (value instanceof Boolean)
+        {
+            return 8;
+        }
+        else if (value instanceof Date)
+        {
+            return 9;
+        }
+
+        return 10;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object a, Object b)
+    {
+        int order = typeOrder(a) - typeOrder(b);
+
+        if (order != 0 || a == null)
+        {
+            return order;
+        }
+        else if (a instanceof Number)
+        {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        else if (a instanceof byte[])
+        {
+            byte[] x = (byte[]) a;
+            byte[] y = (byte[]) b;
+
+            if (x.length != y.length)
+            {
+                return x.length - y.length;
+            }
+
+            for (int i = 0; i < x.length; i++)
+            {
+                if (x[i] != y[i])
+                {
+                    return (x[i] & 0xff) - (y[i] & 0xff);
+                }
+            }
+
+            return 0;
+        }
+        else if (a instanceof Comparable && a.getClass() == b.getClass())
+        {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+
+        return a.toString().compareTo(b.toString());
+    }
+
+    private static void sort(List<BSONObject> documents, final BSONObject orderBy)
+    {
+        Collections.sort(documents, new Comparator<BSONObject>()
+        {
+            public int compare(BSONObject a, BSONObject b)
+            {
+                for (String key : orderBy.keySet())
+                {
+                    int order = compareValues(getPath(a, key), getPath(b, key));
+
+                    if (order != 0)
+                    {
+                        return ((Number) orderBy.get(key)).intValue() < 0 ? -order : order;
+                    }
+                }
+
+                return 0;
+            }
+        });
+    }
+
+    private static boolean valueEquals(Object expected, Object actual)
+    {
+        if (expected == null || actual == null)
+        {
+            return expected == actual;
+        }
+        else if (expected instanceof Number && actual instanceof Number)
+        {
+            return ((Number) expected).doubleValue() == ((Number) actual).doubleValue();
+        }
+        else if (expected instanceof byte[] && actual instanceof byte[])
+        {
+            return Arrays.equals((byte[]) expected, (byte[]) actual);
+        }
+
+        return expected.equals(actual);
+    }
+
+    private static Object getPath(BSONObject document, String path)
+    {
+        Object value = document;
+
+        for (String key : path.split("\\."))
+        {
+            if (!(value instanceof BSONObject))
+            {
+                return null;
+            }
+
+            value = ((BSONObject) value).get(key);
+        }
+
+        return value;
+    }
+
+    private static void setPath(BSONObject document, String path, Object value)
+    {
+        String[] keys = path.split("\\.");
+
+        for (int i = 0; i < keys.length - 1; i++)
+        {
+            Object child = document.get(keys[i]);
+
+            if (!(child instanceof BSONObject))
+            {
+                child = new BasicBSONObject();
+                document.put(keys[i], child);
+            }
+
+            document = (BSONObject) child;
+        }
+
+        document.put(keys[keys.length - 1], value);
+    }
+
+    private static void removePath(BSONObject document, String path)
+    {
+        int dot = path.lastIndexOf('.');
+        Object parent = (dot < 0) ? document : getPath(document, path.substring(0, dot));
+
+        if (parent instanceof BSONObject)
+        {
+            ((BSONObject) parent).removeField(path.substring(dot + 1));
+        }
+    }
+
+    /**
+     * Applies the $set, $unset, $inc and $push modifiers of update to
+     * document.
+     */
+    private static void modify(BSONObject document, BSONObject update)
+    {
+        for (String operator : update.keySet())
+        {
+            BSONObject fields = (BSONObject) update.get(operator);
+
+            for (String path : fields.keySet())
+            {
+                if ("$set".equals(operator))
+                {
+                    setPath(document, path, fields.get(path));
+                }
+                else if ("$unset".equals(operator))
+                {
+                    removePath(document, path);
+                }
+                else if ("$inc".equals(operator))
+                {
+                    Object current = getPath(document, path);
+                    Number delta = (Number) fields.get(path);
+
+                    if (current instanceof Integer && delta instanceof Integer)
+                    {
+                        setPath(document, path, (Integer) current + (Integer) delta);
+                    }
+                    else if (current instanceof Double || delta instanceof Double)
+                    {
+                        setPath(document, path, (current == null ? 0 : ((Number) current).doubleValue()) + delta.doubleValue());
+                    }
+                    else
+                    {
+                        setPath(document, path, (current == null ? 0 : ((Number) current).longValue()) + delta.longValue());
+                    }
+                }
+                else if ("$push".equals(operator))
+                {
+                    Object current = getPath(document, path);
+
+                    if (current == null)
+                    {
+                        current = new BasicBSONList();
+                        setPath(document, path, current);
+                    }
+                    else if (!(current instanceof BasicBSONList))
+                    {
+                        throw new IllegalArgumentException("Cannot apply $push modifier to non-array");
+                    }
+
+                    ((BasicBSONList) current).add(fields.get(path));
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Invalid modifier specified: " + operator);
+                }
+            }
+        }
+    }
+
+    private static boolean isModifier(BSONObject update)
+    {
+        Iterator<String> keys = update.keySet().iterator();
+        return keys.hasNext() && keys.next().startsWith("$");
+    }
+
+    private static BSONObject project(BSONObject document, BSONObject fields)
+    {
+        if (fields == null || fields.keySet().isEmpty())
+        {
+            return document;
+        }
+
+        BSONObject projected = new BasicBSONObject("_id", document.get("_id"));
+
+        for (String key : fields.keySet())
+        {
+            Object value = getPath(document, key);
+
+            if (value != null)
+            {
+                setPath(projected, key, value);
+            }
+        }
+
+        return projected;
+    }
+
+    private static String getDatabaseName(String namespace)
+    {
+        return namespace.substring(0, namespace.indexOf('.'));
+    }
+
+    private static BSONObject ok()
+    {
+        return new BasicBSONObject("ok", 1.0);
+    }
+
+    private static BSONObject failed(String message)
+    {
+        BasicBSONObject result = new BasicBSONObject("errmsg", message);
+        result.put("ok", 0.0);
+        return result;
+    }
+
+    /**
+     * Documents left over from a query, handed out by OP_GET_MORE.
+     */
+    private static final class Cursor
+    {
+        private final List<BSONObject> documents;
+        private final BSONObject fields;
+        private int position;
+
+        Cursor(List<BSONObject> documents, BSONObject fields, int position)
+        {
+            this.documents = documents;
+            this.fields    = fields;
+            this.position  = position;
+        }
+    }
+
+    private final class EventLoop implements Runnable
+    {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+
+        EventLoop() throws IOException
+        {
+            selector = Selector.open();
+        }
+
+        void add(SocketChannel channel)
+        {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (!closed)
+                {
+                    selector.select();
+                    register();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                    while (keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        service(key);
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Fake server selector failed: " + ex.getMessage());
+            }
+            finally
+            {
+                for (SelectionKey key : selector.keys())
+                {
+                    ((Connection) key.attachment()).close();
+                }
+
+                try
+                {
+                    selector.close();
+                }
+                catch (IOException ex)
+                {
+                }
+            }
+        }
+
+        private void register() throws IOException
+        {
+            SocketChannel channel;
+
+            while ((channel = pending.poll()) != null)
+            {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+            }
+        }
+
+        private void service(SelectionKey key)
+        {
+            Connection connection = (Connection) key.attachment();
+
+            try
+            {
+                if (key.isReadable())
+                {
+                    connection.read();
+                }
+
+                if (key.isWritable())
+                {
+                    connection.flush();
+                }
+
+                key.interestOps(connection.hasPendingWrites() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+            catch (IOException ex)
+            {
+                key.cancel();
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * One client connection: its partly read requests, unsent replies, and
+     * the outcome of its last write for getLastError.
+     */
+    private final class Connection
+    {
+        private final SocketChannel channel;
+        private ByteBuffer in   = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer out  = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private String lastError = null;
+        private int lastCode = 0;
+        private int lastCount = 0;
+        private boolean lastUpdatedExisting = false;
+        private Object lastUpserted = null;
+
+        Connection(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        void read() throws IOException
+        {
+            int read = channel.read(in);
+
+            if (read < 0)
+            {
+                throw new EOFException();
+            }
+
+            bytesIn.addAndGet(read);
+
+            in.flip();
+
+            while (in.remaining() >= 4)
+            {
+                int length = in.getInt(in.position());
+
+                if (length < HEADER_SIZE || length > MAX_MESSAGE_SIZE)
+                {
+                    throw new IOException("Bad message length " + length);
+                }
+                else if (in.remaining() < length)
+                {
+                    break;
+                }
+
+                ByteBuffer message = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                message.limit(in.position() + length);
+                in.position(in.position() + length);
+                handle(message);
+            }
+
+            in.compact();
+
+            if (in.position() >= 4 && in.getInt(0) > in.capacity())
+            {
+                in.flip();
+                in = ByteBuffer.allocate(in.getInt(0)).order(ByteOrder.LITTLE_ENDIAN).put(in);
+            }
+
+            flush();
+        }
+
+        void flush() throws IOException
+        {
+            out.flip();
+            bytesOut.addAndGet(channel.write(out));
+            out.compact();
+        }
+
+        boolean hasPendingWrites()
+        {
+            return out.position() > 0;
+        }
+
+        void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+
+        private void handle(ByteBuffer message) throws IOException
+        {
+            message.getInt();
+            int requestId = message.getInt();
+            message.getInt();
+            int opCode = message.getInt();
+
+            requests.incrementAndGet();
+
+            switch (opCode)
+            {
+                case OP_QUERY:
+                    query(requestId, message);
+                    break;
+                case OP_GET_MORE:
+                    opcounters.incrementAndGet(4);
+                    getMore(requestId, message);
+                    break;
+                case OP_INSERT:
+                    opcounters.incrementAndGet(0);
+                    insert(message);
+                    break;
+                case OP_UPDATE:
+                    opcounters.incrementAndGet(2);
+                    update(message);
+                    break;
+                case OP_DELETE:
+                    opcounters.incrementAndGet(3);
+                    delete(message);
+                    break;
+                case OP_KILL_CURSORS:
+                    killCursors(message);
+                    break;
+                default:
+                    throw new IOException("Unsupported opcode " + opCode);
+            }
+        }
+
+        private void insert(ByteBuffer message)
+        {
+            int flags = message.getInt();
+            ConcurrentMap<Object, BSONObject> collection = getCollection(readCString(message));
+
+            resetLastError();
+
+            while (message.hasRemaining())
+            {
+                BSONObject document = readDocument(message);
+                Object id = document.get("_id");
+
+                if (id == null)
+                {
+                    id = new ObjectId();
+                    document.put("_id", id);
+                }
+
+                if (collection.putIfAbsent(id, document) != null)
+                {
+                    lastError = "E11000 duplicate key error index: _id_  dup key: { : \"" + id + "\" }";
+                    lastCode  = DUPLICATE_KEY;
+
+                    if ((flags & INSERT_CONTINUE_ON_ERROR) == 0)
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void update(ByteBuffer message)
+        {
+            message.getInt();
+            String namespace = readCString(message);
+            int flags = message.getInt();
+            BSONObject selector = readDocument(message);
+            BSONObject update = readDocument(message);
+            boolean modifier = isModifier(update);
+
+            resetLastError();
+
+            try
+            {
+                for (BSONObject document : find(namespace, selector, (flags & UPDATE_MULTI) != 0 ? -1 : 1))
+                {
+                    if (modifier)
+                    {
+                        synchronized (document)
+                        {
+                            modify(document, update);
+                        }
+                    }
+                    else
+                    {
+                        update.put("_id", document.get("_id"));
+                        getCollection(namespace).replace(document.get("_id"), update);
+                    }
+
+                    lastCount++;
+                    lastUpdatedExisting = true;
+                }
+
+                if (lastCount == 0 && (flags & UPDATE_UPSERT) != 0)
+                {
+                    BSONObject document = new BasicBSONObject();
+
+                    if (modifier)
+                    {
+                        for (String key : selector.keySet())
+                        {
+                            setPath(document, key, selector.get(key));
+                        }
+
+                        modify(document, update);
+                    }
+                    else
+                    {
+                        document.putAll(update);
+                    }
+
+                    if (document.get("_id") == null)
+                    {
+                        document.put("_id", selector.containsField("_id") ? selector.get("_id") : new ObjectId());
+                    }
+
+                    getCollection(namespace).putIfAbsent(document.get("_id"), document);
+                    lastCount    = 1;
+                    lastUpserted = document.get("_id");
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                lastError = ex.getMessage();
+            }
+        }
+
+        private void delete(ByteBuffer message)
+        {
+            message.getInt();
+            String namespace = readCString(message);
+            int flags = message.getInt();
+            BSONObject selector = readDocument(message);
+
+            resetLastError();
+
+            for (BSONObject document : find(namespace, selector, (flags & DELETE_SINGLE) != 0 ? 1 : -1))
+            {
+                if (collections.get(namespace).remove(document.get("_id"), document))
+                {
+                    lastCount++;
+                }
+            }
+        }
+
+        private void query(int requestId, ByteBuffer message)
+        {
+            message.getInt();
+            String namespace = readCString(message);
+            int skip = message.getInt();
+            int numberToReturn = message.getInt();
+            BSONObject query = readDocument(message);
+            BSONObject fields = message.hasRemaining() ? readDocument(message) : null;
+
+            opcounters.incrementAndGet(namespace.endsWith(".$cmd") ? 5 : 1);
+
+            if (namespace.endsWith(".$cmd"))
+            {
+                reply(requestId, 0, 0, 0, Collections.singletonList(command(getDatabaseName(namespace), query)), null);
+                return;
+            }
+
+            BSONObject orderBy = null;
+
+            // Sorted queries come wrapped, as "query" and "orderby" from
+            // this driver and with a $ from newer ones.
+            if (query.containsField("$query"))
+            {
+                orderBy = (BSONObject) query.get("$orderby");
+                query = (BSONObject) query.get("$query");
+            }
+            else if (query.get("query") instanceof BSONObject)
+            {
+                orderBy = (BSONObject) query.get("orderby");
+                query = (BSONObject) query.get("query");
+            }
+
+            boolean single = numberToReturn < 0 || numberToReturn == 1;
+            int batchSize = (numberToReturn == 0) ? DEFAULT_BATCH_SIZE : Math.abs(numberToReturn);
+            List<BSONObject> found;
+
+            try
+            {
+                found = find(namespace, query, single && orderBy == null ? skip + batchSize : -1);
+            }
+            catch (RuntimeException ex)
+            {
+                reply(requestId, REPLY_QUERY_FAILURE, 0, 0, Collections.singletonList(new BasicBSONObject("$err", ex.getMessage())), null);
+                return;
+            }
+
+            if (orderBy != null)
+            {
+                sort(found, orderBy);
+            }
+
+            found = found.subList(Math.min(skip, found.size()), found.size());
+
+            if (single || found.size() <= batchSize)
+            {
+                reply(requestId, 0, 0, 0, found.subList(0, Math.min(batchSize, found.size())), fields);
+                return;
+            }
+
+            long cursorId = cursorIds.incrementAndGet();
+            cursors.put(cursorId, new Cursor(found, fields, batchSize));
+            reply(requestId, 0, cursorId, 0, found.subList(0, batchSize), fields);
+        }
+
+        private void getMore(int requestId, ByteBuffer message)
+        {
+            message.getInt();
+            readCString(message);
+            int numberToReturn = message.getInt();
+            long cursorId = message.getLong();
+            Cursor cursor = cursors.get(cursorId);
+
+            if (cursor == null)
+            {
+                reply(requestId, REPLY_CURSOR_NOT_FOUND, 0, 0, Collections.<BSONObject>emptyList(), null);
+                return;
+            }
+
+            int start;
+            int end;
+
+            synchronized (cursor)
+            {
+                start = cursor.position;
+                end = Math.min(cursor.documents.size(), start + (numberToReturn > 0 ? numberToReturn : DEFAULT_BATCH_SIZE));
+                cursor.position = end;
+            }
+
+            if (end == cursor.documents.size())
+            {
+                cursors.remove(cursorId);
+                cursorId = 0;
+            }
+
+            reply(requestId, 0, cursorId, start, cursor.documents.subList(start, end), cursor.fields);
+        }
+
+        private void killCursors(ByteBuffer message)
+        {
+            message.getInt();
+            int count = message.getInt();
+
+            for (int i = 0; i < count; i++)
+            {
+                cursors.remove(message.getLong());
+            }
+        }
+
+        private BSONObject command(String database, BSONObject command)
+        {
+            String name = command.keySet().iterator().next();
+            Object argument = command.get(name);
+
+            if ("getlasterror".equalsIgnoreCase(name))
+            {
+                BasicBSONObject result = new BasicBSONObject("n", lastCount);
+
+                result.put("err", lastError);
+
+                if (lastCode != 0)
+                {
+                    result.put("code", lastCode);
+                }
+
+                if (lastUpdatedExisting)
+                {
+                    result.put("updatedExisting", true);
+                }
+
+                if (lastUpserted != null)
+                {
+                    result.put("upserted", lastUpserted);
+                }
+
+                result.put("ok", 1.0);
+                return result;
+            }
+            else if ("ismaster".equalsIgnoreCase(name))
+            {
+                BasicBSONObject result = new BasicBSONObject("ismaster", true);
+                result.put("maxBsonObjectSize", MAX_BSON_SIZE);
+                result.put("ok", 1.0);
+                return result;
+            }
+            else if ("buildinfo".equalsIgnoreCase(name))
+            {
+                BasicBSONObject result = new BasicBSONObject("version", "2.0.0");
+                result.put("ok", 1.0);
+                return result;
+            }
+            else if ("count".equalsIgnoreCase(name))
+            {
+                BSONObject query = (BSONObject) command.get("query");
+                String namespace = database + "." + argument;
+                int count = (query == null || query.keySet().isEmpty()) ? getCollection(namespace).size() : find(namespace, query, -1).size();
+                BasicBSONObject result = new BasicBSONObject("n", (double) count);
+                result.put("ok", 1.0);
+                return result;
+            }
+            else if ("drop".equalsIgnoreCase(name))
+            {
+                return collections.remove(database + "." + argument) != null ? ok() : failed("ns not found");
+            }
+            else if ("dropDatabase".equalsIgnoreCase(name))
+            {
+                for (String namespace : collections.keySet())
+                {
+                    if (namespace.startsWith(database + "."))
+                    {
+                        collections.remove(namespace);
+                    }
+                }
+
+                return ok();
+            }
+            else if ("serverStatus".equalsIgnoreCase(name))
+            {
+                return serverStatus();
+            }
+            else if ("collStats".equalsIgnoreCase(name))
+            {
+                return collStats(database + "." + argument);
+            }
+            else if ("ping".equalsIgnoreCase(name) || "create".equalsIgnoreCase(name) || "deleteIndexes".equalsIgnoreCase(name))
+            {
+                return ok();
+            }
+
+            return failed("no such cmd: " + name);
+        }
+
+        /**
+         * The counters the server keeps, and zeros for the locking, paging
+         * and index misses it does not have.
+         */
+        private BSONObject serverStatus()
+        {
+            BasicBSONObject counters = new BasicBSONObject();
+            long uptime = System.currentTimeMillis() - startedAt;
+            Runtime runtime = Runtime.getRuntime();
+
+            for (int i = 0; i < OPCOUNTER_NAMES.length; i++)
+            {
+                counters.put(OPCOUNTER_NAMES[i], opcounters.get(i));
+            }
+
+            BasicBSONObject result = new BasicBSONObject("host", getHostname() + ":" + getPort());
+
+            result.put("version",       "2.0.0");
+            result.put("uptime",        uptime / 1000.0);
+            result.put("opcounters",    counters);
+            result.put("globalLock",    new BasicBSONObject("totalTime", uptime * 1000).append("lockTime", 0L));
+            result.put("mem",           new BasicBSONObject("resident", (int)((runtime.totalMemory() - runtime.freeMemory()) >> 20)));
+            result.put("extra_info",    new BasicBSONObject("page_faults", 0L));
+            result.put("network",       new BasicBSONObject("bytesIn", bytesIn.get()).append("bytesOut", bytesOut.get()).append("numRequests", requests.get()));
+            result.put("indexCounters", new BasicBSONObject("misses", 0L));
+            result.put("ok",            1.0);
+
+            return result;
+        }
+
+        /**
+         * Sizes are estimated from the first few documents rather than
+         * encoding the whole collection.
+         */
+        private BSONObject collStats(String namespace)
+        {
+            ConcurrentMap<Object, BSONObject> collection = collections.get(namespace);
+
+            if (collection == null)
+            {
+                return failed("ns not found");
+            }
+
+            long count    = collection.size();
+            long sampled  = 0;
+            long bytes    = 0;
+
+            for (BSONObject document : collection.values())
+            {
+                if (sampled == SIZE_SAMPLE)
+                {
+                    break;
+                }
+
+                bytes += BSON.encode(document).length;
+                sampled++;
+            }
+
+            long average = sampled > 0 ? bytes / sampled : 0;
+            BasicBSONObject result = new BasicBSONObject("ns", namespace);
+
+            result.put("count",           count);
+            result.put("size",            count * average);
+            result.put("avgObjSize",      (double)average);
+            result.put("storageSize",     count * average);
+            result.put("nindexes",        1);
+            result.put("totalIndexSize",  count * ID_INDEX_ENTRY_SIZE);
+            result.put("ok",              1.0);
+
+            return result;
+        }
+
+        private void resetLastError()
+        {
+            lastError           = null;
+            lastCode            = 0;
+            lastCount           = 0;
+            lastUpdatedExisting = false;
+            lastUpserted        = null;
+        }
+
+        private void reply(int responseTo, int flags, long cursorId, int startingFrom, List<BSONObject> documents, BSONObject fields)
+        {
+            int length = REPLY_HEADER_SIZE;
+            byte[][] encoded = new byte[documents.size()][];
+
+            for (int i = 0; i < encoded.length; i++)
+            {
+                BSONObject document = documents.get(i);
+
+                synchronized (document)
+                {
+                    encoded[i] = BSON.encode(project(document, fields));
+                }
+
+                length += encoded[i].length;
+            }
+
+            if (out.remaining() < length)
+            {
+                out.flip();
+                out = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.remaining() + length)).order(ByteOrder.LITTLE_ENDIAN).put(out);
+            }
+
+            out.putInt(length);
+            out.putInt(replyIds.incrementAndGet());
+            out.putInt(responseTo);
+            out.putInt(OP_REPLY);
+            out.putInt(flags);
+            out.putLong(cursorId);
+            out.putInt(startingFrom);
+            out.putInt(encoded.length);
+
+            for (byte[] document : encoded)
+            {
+                out.put(document);
+            }
+        }
+    }
+
+    private static String readCString(ByteBuffer message)
+    {
+        int start = message.position();
+        int end = start;
+
+        while (message.get(end) != 0)
+        {
+            end++;
+        }
+
+        byte[] bytes = new byte[end - start];
+        message.get(bytes);
+        message.get();
+        return new String(bytes, UTF8);
+    }
+
+    private static BSONObject readDocument(ByteBuffer message)
+    {
+        byte[] bytes = new byte[message.getInt(message.position())];
+        message.get(bytes);
+        return BSON.decode(bytes);
+    }
+}
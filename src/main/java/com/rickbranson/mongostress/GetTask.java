@@ -27,8 +27,23 @@
 
 package com.rickbranson.mongostress;
 
+import com.mongodb.DBObject;
+
 public class GetTask implements StressTask 
 {
+    public static final StressTask.Factory FACTORY = new StressTask.Factory()
+    {
+        public void prepare(Session session)
+        {
+            GetTask.prepare(session);
+        }
+
+        public StressTask create(Session session)
+        {
+            return new GetTask();
+        }
+    };
+
     public GetTask()
     {
     }
@@ -37,9 +52,27 @@ public class GetTask implements StressTask
     {
     }
 
-    public void perform(StressWorker context)
+    public int perform(StressWorker context)
+    {
+        DBObject document = context.getCollection().findOne(context.randomRequestKey());
+
+        if (document == null)
+        {
+            return 0;
+        }
+
+        context.addBytes(PayloadGenerator.bsonSize(document));
+        return 1;
+    }
+
+    public int getRequestSize()
+    {
+        return 1;
+    }
+
+    public boolean isRead()
     {
-        context.getCollection().findOne(context.randomRequestKey());
+        return true;
     }
 }
 
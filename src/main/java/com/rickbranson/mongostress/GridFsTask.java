@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.util.*;
+
+import com.mongodb.*;
+import com.mongodb.gridfs.*;
+
+/**
+ * Streams files through GridFS, in the --collection-name bucket: PUT
+ * uploads a file made of one random blob per --columns field, so files
+ * follow --size-distribution and --compressibility like documents do, and
+ * GET downloads a random key's file and reads it to the end. Each file
+ * counts as one document of its length in bytes.
+ */
+public class GridFsTask implements StressTask
+{
+    public static final String PUT = "GRIDFS_PUT";
+    public static final String GET = "GRIDFS_GET";
+
+    public static final StressTask.Factory PUT_FACTORY = factory(true);
+    public static final StressTask.Factory GET_FACTORY = factory(false);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final boolean upload;
+    private final String bucket;
+    private final PayloadGenerator payload;
+    private final Vector<InputStream> blobs = new Vector<InputStream>();
+    private final byte[] buffer;
+    private GridFS gridFs = null;
+
+    public GridFsTask(Session session, boolean upload)
+    {
+        this.upload = upload;
+        bucket      = session.getCollectionName();
+        payload     = session.getPayloadGenerator();
+        buffer      = upload ? null : new byte[READ_BUFFER_SIZE];
+    }
+
+    private static StressTask.Factory factory(final boolean upload)
+    {
+        return new StressTask.Factory()
+        {
+            public void prepare(Session session)
+            {
+                if (upload)
+                {
+                    GridFsTask.prepare(session);
+                }
+            }
+
+            public StressTask create(Session session)
+            {
+                return new GridFsTask(session, upload);
+            }
+        };
+    }
+
+    /**
+     * Starts from an empty bucket, unless other operations in the workload
+     * expect to find existing files, as InsertTask does for documents.
+     */
+    public static void prepare(Session session)
+    {
+        if (session.getWorkload().size() > 1 || session.isLoad())
+        {
+            return;
+        }
+
+        Mongo m = session.createConnection();
+        DB db   = session.getDB(m);
+
+        db.getCollection(session.getCollectionName() + ".files").drop();
+        db.getCollection(session.getCollectionName() + ".chunks").drop();
+        m.close();
+    }
+
+    /**
+     * The bucket on the database the current operation goes to, which
+     * changes when reads go to a different server than writes.
+     */
+    private GridFS getGridFs(StressWorker context)
+    {
+        DB db = context.getCollection().getDB();
+
+        if (gridFs == null || gridFs.getDB() != db)
+        {
+            gridFs = new GridFS(db, bucket);
+        }
+
+        return gridFs;
+    }
+
+    public int perform(StressWorker context)
+    {
+        return upload ? put(context) : get(context);
+    }
+
+    private int put(StressWorker context)
+    {
+        long length = 0;
+
+        blobs.clear();
+
+        for (int i = 0; i < payload.getFieldCount(); i++)
+        {
+            byte[] blob = payload.nextBlob();
+
+            blobs.add(new ByteArrayInputStream(blob));
+            length += blob.length;
+        }
+
+        String key              = context.nextInsertKey();
+        GridFSInputFile file    = getGridFs(context).createFile(new SequenceInputStream(blobs.elements()), key);
+
+        file.put("_id", key);
+        file.save();
+
+        context.addBytes(length);
+        return 1;
+    }
+
+    private int get(StressWorker context)
+    {
+        GridFSDBFile file = getGridFs(context).findOne(new BasicDBObject("_id", context.randomRequestKey()));
+
+        if (file == null)
+        {
+            return 0;
+        }
+
+        InputStream in  = file.getInputStream();
+        long length     = 0;
+        int read;
+
+        try
+        {
+            while ((read = in.read(buffer)) > 0)
+            {
+                length += read;
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new MongoException("Failed to read " + file.getFilename(), ex);
+        }
+
+        context.addBytes(length);
+        return 1;
+    }
+
+    public int getRequestSize()
+    {
+        return 1;
+    }
+
+    public boolean isRead()
+    {
+        return !upload;
+    }
+}
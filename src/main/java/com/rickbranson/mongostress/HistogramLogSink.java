@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.util.List;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+/**
+ * Writes every interval's histograms to an HdrHistogram interval log, in
+ * the compressed format HistogramLogReader (and HistogramLogProcessor)
+ * read back, so runs can be re-merged and re-analysed later. Each
+ * histogram is tagged with its operation and, for series other than the
+ * main latency, the series name, e.g. "READ" or "READ.raw_latency".
+ */
+public class HistogramLogSink implements ResultSink
+{
+    private final ResultFormat format;
+    private final AsyncWriter out;
+    private final HistogramLogWriter log;
+    private final long startedAt = System.currentTimeMillis();
+
+    public HistogramLogSink(ResultFormat format, String path) throws IOException
+    {
+        this.format = format;
+        this.out    = new AsyncWriter(null, false, "writer-" + new File(path).getName());
+        this.log    = new HistogramLogWriter(new BufferedOutputStream(new FileOutputStream(path)));
+
+        log.outputLogFormatVersion();
+        log.outputStartTime(startedAt);
+        log.setBaseTime(startedAt);
+        log.outputLegend();
+    }
+
+    public void interval(List<ResultRow> rows)
+    {
+        final long now = System.currentTimeMillis();
+
+        for (ResultRow row : rows)
+        {
+            // ALL is just the sum of the per-operation rows before it.
+            if (row.getOperation().equals("ALL") && !rows.get(0).getOperation().equals("ALL"))
+            {
+                continue;
+            }
+
+            for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+            {
+                if (!format.isReported(series) || row.getHistogram(series).getTotalCount() == 0)
+                {
+                    continue;
+                }
+
+                final Histogram copy = row.getHistogram(series).copy();
+
+                copy.setStartTimeStamp(now - (long)(row.getSeconds() * 1000));
+                copy.setEndTimeStamp(now);
+                copy.setTag(series == WorkerStats.LATENCY ? row.getOperation() : row.getOperation() + "." + ResultFormat.SERIES_NAMES[series]);
+
+                out.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        log.outputIntervalHistogram(copy);
+                    }
+                });
+            }
+        }
+    }
+
+    public void summary(List<ResultRow> rows)
+    {
+    }
+
+    public void close() throws IOException
+    {
+        out.close();
+        log.close();
+    }
+}
@@ -27,27 +27,99 @@
 
 package com.rickbranson.mongostress;
 
+import java.util.*;
+
 import com.mongodb.*;
 
 class InsertTask implements StressTask
 {
-    final BasicDBObject dbObject;
+    public static final StressTask.Factory FACTORY = new StressTask.Factory()
+    {
+        public void prepare(Session session) throws Exception
+        {
+            InsertTask.prepare(session);
+        }
+
+        public StressTask create(Session session)
+        {
+            return new InsertTask(session);
+        }
+    };
 
-    public InsertTask(BasicDBObject obj)
+    final PayloadGenerator payload;
+    final BasicDBObject[] dbObjects;
+    final List<DBObject> batch;
+
+    /**
+     * Sends --batch-size documents per insert call. The documents are
+     * refilled with new values before every request.
+     */
+    public InsertTask(Session session)
     {
-        dbObject = obj;
+        payload   = session.getPayloadGenerator();
+        dbObjects = new BasicDBObject[session.getBatchSize()];
+
+        for (int i = 0; i < dbObjects.length; i++)
+        {
+            dbObjects[i] = payload.newDocument();
+        }
+
+        batch = Arrays.<DBObject>asList(dbObjects);
     }
 
+    /**
+     * Starts from an empty collection, unless other operations in the
+     * workload expect to find existing documents. A --load empties the
+     * collection itself, and only when it is not resuming.
+     */
     public static void prepare(Session session) throws Exception
     {
+        if (session.getWorkload().size() > 1 || session.isLoad())
+        {
+            return;
+        }
+
         Mongo m = session.createConnection();
         session.getCollection(m).drop();
         m.close();
+
+        Manifest.remove(session);
+    }
+
+    /**
+     * Inserts the worker's request size of documents, which is short of
+     * --batch-size only for the last batch of the run.
+     */
+    public int perform(StressWorker context)
+    {
+        final int count = context.getRequestSize();
+
+        for (int i = 0; i < count; i++)
+        {
+            payload.fill(dbObjects[i]);
+            dbObjects[i].put("_id", context.nextInsertKey());
+            context.addBytes(PayloadGenerator.bsonSize(dbObjects[i]));
+        }
+
+        if (count == 1)
+        {
+            context.getCollection().insert(dbObjects[0]);
+        }
+        else
+        {
+            context.getCollection().insert(count == dbObjects.length ? batch : batch.subList(0, count));
+        }
+
+        return count;
+    }
+
+    public int getRequestSize()
+    {
+        return dbObjects.length;
     }
 
-    public void perform(StressWorker context)
+    public boolean isRead()
     {
-        dbObject.put("_id", context.currentRequestKey());
-        context.getCollection().insert(dbObject);
+        return false;
     }
 }
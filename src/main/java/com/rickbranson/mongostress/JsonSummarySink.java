@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.IOException;
+import java.util.*;
+
+import com.mongodb.*;
+import com.mongodb.util.JSON;
+
+/**
+ * A single JSON document written at the end of the run, with the run's
+ * configuration and the summary rows.
+ */
+public class JsonSummarySink implements ResultSink
+{
+    private final Session session;
+    private final ResultFormat format;
+    private final AsyncWriter out;
+    private final long startedAt = System.currentTimeMillis();
+
+    public JsonSummarySink(Session session, ResultFormat format, AsyncWriter out)
+    {
+        this.session  = session;
+        this.format   = format;
+        this.out      = out;
+    }
+
+    public void interval(List<ResultRow> rows)
+    {
+    }
+
+    public void summary(List<ResultRow> rows)
+    {
+        BasicDBObject summary = new BasicDBObject();
+        BasicDBList results   = new BasicDBList();
+
+        for (ResultRow row : rows)
+        {
+            results.add(format.toDBObject(row));
+        }
+
+        summary.put("started",        new Date(startedAt));
+        summary.put("finished",       new Date());
+        summary.put("configuration",  new BasicDBObject(session.getConfiguration()));
+        summary.put("results",        results);
+
+        out.println(JSON.serialize(summary));
+    }
+
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
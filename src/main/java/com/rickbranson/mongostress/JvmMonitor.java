@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.rickbranson.mongostress;
+
+import java.lang.management.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Samples what the client JVM itself did each interval, from JMX: GC
+ * pauses, allocation, process CPU, live threads and safepoint time, and
+ * spots intervals where the client was saturated just as latency spiked,
+ * which points at the load generator rather than the server. Values the
+ * JVM cannot provide are NaN.
+ *
+ * Allocation is counted per thread, except with virtual worker threads,
+ * which the thread MBean does not list. Then it is the growth of the heap
+ * plus what each collection freed, which also counts every other thread.
+ */
+public class JvmMonitor
+{
+    public static final String[] COLUMNS = {
+        "jvm_gc_count", "jvm_gc_ms", "jvm_alloc_mb_rate", "jvm_cpu_pct", "jvm_threads", "jvm_safepoint_ms"
+    };
+
+    // What each of the COLUMNS is, for the metrics endpoint.
+    public static final String[] DESCRIPTIONS = {
+        "Client garbage collections in the last interval", "Milliseconds the client spent in garbage collection in the last interval",
+        "Megabytes per second the client allocated", "Client process CPU as a percentage of all cores",
+        "Live client threads", "Milliseconds the client spent at safepoints in the last interval"
+    };
+
+    public static final int GC_COUNT            = 0;
+    public static final int GC_MILLIS           = 1;
+    public static final int ALLOCATION_RATE     = 2;
+    public static final int CPU_PERCENT         = 3;
+    public static final int THREADS             = 4;
+    public static final int SAFEPOINT_MILLIS    = 5;
+
+    /**
+     * Process CPU, as a percentage of all cores, above which the client
+     * counts as saturated.
+     */
+    public static final double CPU_SATURATED = 90;
+
+    /**
+     * Share of an interval spent paused, in GC or at safepoints, above
+     * which the client counts as saturated.
+     */
+    public static final double PAUSE_SATURATED = 0.05;
+
+    /**
+     * How many times the median p99 of the intervals before it an
+     * interval's p99 has to be to count as a spike.
+     */
+    public static final double SPIKE_FACTOR = 2;
+
+    private static final double MB = 1024 * 1024;
+
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private final Map<Long, Long> lastAllocated = new HashMap<Long, Long>();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong collectedBytes = new AtomicLong();
+    private final boolean heapAccounting;
+    private long lastHeapAllocated;
+    private final List<Long> p99s = new ArrayList<Long>();
+    private final Object hotspotRuntime;
+    private final Method safepointTime;
+    private long lastSampledAt;
+    private double lastGcCount;
+    private double lastGcMillis;
+    private double lastCpuNanos;
+    private double lastSafepointMillis;
+    private int intervals = 0;
+    private int saturatedIntervals = 0;
+
+    public JvmMonitor()
+    {
+        this(false);
+    }
+
+    /**
+     * Counts allocation from the heap rather than per thread when the
+     * workers run on virtual threads.
+     */
+    public JvmMonitor(boolean virtualThreads)
+    {
+        Object runtime = null;
+        Method method  = null;
+
+        // Safepoint time is only in HotSpot's internal runtime MBean, which
+        // the jar's manifest exports on Java 9 and later.
+        try
+        {
+            runtime = Class.forName("sun.management.ManagementFactoryHelper").getMethod("getHotspotRuntimeMBean").invoke(null);
+            method  = Class.forName("sun.management.HotspotRuntimeMBean").getMethod("getTotalSafepointTime");
+            method.invoke(runtime);
+        }
+        catch (Throwable ex)
+        {
+            runtime = null;
+            method  = null;
+        }
+
+        hotspotRuntime  = runtime;
+        safepointTime   = method;
+
+        if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported())
+        {
+            ((com.sun.management.ThreadMXBean)threads).setThreadAllocatedMemoryEnabled(true);
+        }
+
+        heapAccounting  = virtualThreads && countCollectedBytes();
+
+        sample();
+    }
+
+    /**
+     * The client's side of the interval since the last sample, by COLUMNS.
+     */
+    public double[] sample()
+    {
+        long now            = System.nanoTime();
+        double seconds      = (double)(now - lastSampledAt) / (1000 * 1000 * 1000);
+        double gcCount      = 0;
+        double gcMillis     = 0;
+        double cpuNanos     = os instanceof com.sun.management.OperatingSystemMXBean ? ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime() : -1;
+        double safepoints   = safepointMillis();
+        double[] values     = new double[COLUMNS.length];
+
+        for (GarbageCollectorMXBean collector : collectors)
+        {
+            gcCount  += Math.max(0, collector.getCollectionCount());
+            gcMillis += Math.max(0, collector.getCollectionTime());
+        }
+
+        values[GC_COUNT]            = gcCount - lastGcCount;
+        values[GC_MILLIS]           = gcMillis - lastGcMillis;
+        values[ALLOCATION_RATE]     = (heapAccounting ? heapAllocatedBytes() : allocatedBytes()) / MB / seconds;
+        values[CPU_PERCENT]         = cpuNanos >= 0 ? 100 * (cpuNanos - lastCpuNanos) / (seconds * 1000 * 1000 * 1000 * processors) : Double.NaN;
+        values[THREADS]             = threads.getThreadCount();
+        values[SAFEPOINT_MILLIS]    = safepoints - lastSafepointMillis;
+
+        lastSampledAt       = now;
+        lastGcCount         = gcCount;
+        lastGcMillis        = gcMillis;
+        lastCpuNanos        = cpuNanos;
+        lastSafepointMillis = safepoints;
+
+        return values;
+    }
+
+    /**
+     * Checks a sample against the interval's p99 latency, returning a
+     * warning when the client was saturated while latency spiked, or null.
+     */
+    public String check(double[] sample, double intervalSeconds, long p99Micros, double elapsedSeconds)
+    {
+        long median         = medianP99();
+        boolean spike       = median > 0 && p99Micros > SPIKE_FACTOR * median;
+        double paused       = sample[GC_MILLIS] + (Double.isNaN(sample[SAFEPOINT_MILLIS]) ? 0 : sample[SAFEPOINT_MILLIS]);
+        boolean cpuBound    = sample[CPU_PERCENT] >= CPU_SATURATED;
+        boolean pauseBound  = paused >= PAUSE_SATURATED * intervalSeconds * 1000;
+
+        intervals++;
+        p99s.add(p99Micros);
+
+        if (!cpuBound && !pauseBound)
+        {
+            return null;
+        }
+
+        saturatedIntervals++;
+
+        if (!spike)
+        {
+            return null;
+        }
+
+        return String.format("Warning: p99 latency spiked to %.1f ms at %.1fs while the client was %s; the load generator may be the bottleneck",
+                             p99Micros / 1000.0,
+                             elapsedSeconds,
+                             cpuBound ? String.format("using %.0f%% CPU", sample[CPU_PERCENT]) : String.format("paused for %.0f ms", paused));
+    }
+
+    /**
+     * A warning for a run whose client was saturated in most intervals,
+     * in which case it may have had no spikes to overlap, or null.
+     */
+    public String summarize()
+    {
+        if (intervals == 0 || saturatedIntervals * 2 <= intervals)
+        {
+            return null;
+        }
+
+        return String.format("Warning: the client was CPU or GC bound in %d of %d intervals; the results may measure the load generator rather than the server",
+                             saturatedIntervals,
+                             intervals);
+    }
+
+    private long medianP99()
+    {
+        if (p99s.isEmpty())
+        {
+            return 0;
+        }
+
+        List<Long> sorted = new ArrayList<Long>(p99s);
+        Collections.sort(sorted);
+
+        return sorted.get(sorted.size() / 2);
+    }
+
+    /**
+     * Bytes allocated since the last sample by the live threads. What a
+     * thread allocated between the last sample and its death is lost.
+     */
+    private double allocatedBytes()
+    {
+        if (!(threads instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemoryEnabled())
+        {
+            return Double.NaN;
+        }
+
+        long[] ids          = threads.getAllThreadIds();
+        long[] allocated    = ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(ids);
+        double total        = 0;
+        Map<Long, Long> now = new HashMap<Long, Long>();
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            if (allocated[i] < 0)
+            {
+                continue;
+            }
+
+            Long last = lastAllocated.get(ids[i]);
+
+            total += allocated[i] - (last != null ? last : 0);
+            now.put(ids[i], allocated[i]);
+        }
+
+        lastAllocated.clear();
+        lastAllocated.putAll(now);
+
+        return total;
+    }
+
+    /**
+     * Bytes allocated since the last sample, as the growth of the heap plus
+     * what was collected. Collections are reported a little after they
+     * happen, so one that has not been yet is carried to the next sample
+     * rather than making this one negative.
+     */
+    private double heapAllocatedBytes()
+    {
+        long allocated      = Math.max(lastHeapAllocated, memory.getHeapMemoryUsage().getUsed() + collectedBytes.get());
+        double total        = allocated - lastHeapAllocated;
+
+        lastHeapAllocated   = allocated;
+
+        return total;
+    }
+
+    /**
+     * Adds what each garbage collection frees from the heap to
+     * collectedBytes. Returns false if the collectors do not report it.
+     */
+    private boolean countCollectedBytes()
+    {
+        final Set<String> heapPools = new HashSet<String>();
+        boolean listening           = false;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                heapPools.add(pool.getName());
+            }
+        }
+
+        NotificationListener listener = new NotificationListener()
+        {
+            public void handleNotification(Notification notification, Object handback)
+            {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+                {
+                    return;
+                }
+
+                GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData()).getGcInfo();
+                long freed  = 0;
+
+                for (Map.Entry<String, MemoryUsage> before : info.getMemoryUsageBeforeGc().entrySet())
+                {
+                    if (heapPools.contains(before.getKey()))
+                    {
+                        freed += before.getValue().getUsed() - info.getMemoryUsageAfterGc().get(before.getKey()).getUsed();
+                    }
+                }
+
+                collectedBytes.addAndGet(freed);
+            }
+        };
+
+        for (GarbageCollectorMXBean collector : collectors)
+        {
+            if (collector instanceof NotificationEmitter)
+            {
+                ((NotificationEmitter)collector).addNotificationListener(listener, null, null);
+                listening = true;
+            }
+        }
+
+        return listening;
+    }
+
+    private double safepointMillis()
+    {
+        try
+        {
+            return safepointTime != null ? ((Number)safepointTime.invoke(hotspotRuntime)).doubleValue() : Double.NaN;
+        }
+        catch (Exception ex)
+        {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the index of the next key to access out of itemCount existing keys.
+ * Each worker owns its generators, so they keep their state in plain fields
+ * and draw from ThreadLocalRandom; nothing is allocated per call.
+ */
+public abstract class KeyGenerator
+{
+    public static final String UNIFORM            = "UNIFORM";
+    public static final String ZIPFIAN            = "ZIPFIAN";
+    public static final String SCRAMBLED_ZIPFIAN  = "SCRAMBLED_ZIPFIAN";
+    public static final String HOTSPOT            = "HOTSPOT";
+    public static final String LATEST             = "LATEST";
+    public static final String SEQUENTIAL         = "SEQUENTIAL";
+
+    public static final int KEY_DIGITS = 12;
+
+    public static final List<String> DISTRIBUTIONS = Arrays.asList(UNIFORM, ZIPFIAN, SCRAMBLED_ZIPFIAN, HOTSPOT, LATEST, SEQUENTIAL);
+
+    /**
+     * Returns an index in [0, itemCount). LATEST counts back from the end,
+     * so callers pass the number of keys inserted so far.
+     */
+    public abstract long nextIndex(long itemCount);
+
+    /**
+     * Does whatever setup the first nextIndex(itemCount) would, so that it
+     * is not timed as part of a request.
+     */
+    public void prepare(long itemCount)
+    {
+    }
+
+    /**
+     * The _id of the index'th document. Indexes are zero-padded so that
+     * keys sort in index order and a range of indexes is a range of keys.
+     */
+    public static String toKey(long index)
+    {
+        final char[] digits = new char[KEY_DIGITS];
+
+        for (int i = KEY_DIGITS - 1; i >= 0; i--)
+        {
+            digits[i] = (char)('0' + index % 10);
+            index /= 10;
+        }
+
+        return index == 0 ? new String(digits) : index + new String(digits);
+    }
+
+    /**
+     * The index a key was made from, or -1 if it is not one of toKey()'s.
+     */
+    public static long toIndex(String key)
+    {
+        try
+        {
+            return Long.parseLong(key);
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
+    public static KeyGenerator create(Session session, int workerId)
+    {
+        String distribution = session.getKeyDistribution();
+
+        if (distribution.equals(ZIPFIAN))
+        {
+            return new Zipfian(session.getZipfianConstant());
+        }
+        else if (distribution.equals(SCRAMBLED_ZIPFIAN))
+        {
+            return new ScrambledZipfian(session.getZipfianConstant());
+        }
+        else if (distribution.equals(HOTSPOT))
+        {
+            return new Hotspot(session.getHotspotOpsFraction(), session.getHotspotKeysFraction());
+        }
+        else if (distribution.equals(LATEST))
+        {
+            return new Latest(session.getZipfianConstant());
+        }
+        else if (distribution.equals(SEQUENTIAL))
+        {
+            return new Sequential(workerId, session.getTotalThreadCount());
+        }
+
+        return new Uniform();
+    }
+
+    public static class Uniform extends KeyGenerator
+    {
+        public long nextIndex(long itemCount)
+        {
+            return ThreadLocalRandom.current().nextLong(itemCount);
+        }
+    }
+
+    /**
+     * Gray et al., "Quickly Generating Billion-Record Synthetic Databases",
+     * as used by YCSB. Index 0 is the most popular key. zeta(n) is O(n), so
+     * it is computed once per item count and shared between workers, ahead
+     * of the run by prepare(), then extended incrementally as the item
+     * count grows.
+     */
+    public static class Zipfian extends KeyGenerator
+    {
+        private static final Map<String, Double> zetaCache = new HashMap<String, Double>();
+
+        private final double theta;
+        private final double alpha;
+        private final double zeta2;
+        private long count = 0;
+        private double zetan;
+        private double eta;
+
+        public Zipfian(double theta)
+        {
+            this.theta  = theta;
+            this.alpha  = 1.0 / (1.0 - theta);
+            this.zeta2  = zeta(0, 2, theta, 0);
+        }
+
+        private static double zeta(long from, long to, double theta, double initial)
+        {
+            double sum = initial;
+
+            for (long i = from; i < to; i++)
+            {
+                sum += 1 / Math.pow(i + 1, theta);
+            }
+
+            return sum;
+        }
+
+        private static synchronized double cachedZeta(long n, double theta)
+        {
+            String key    = n + ":" + theta;
+            Double cached = zetaCache.get(key);
+
+            if (cached == null)
+            {
+                cached = zeta(0, n, theta, 0);
+                zetaCache.put(key, cached);
+            }
+
+            return cached;
+        }
+
+        private void resize(long itemCount)
+        {
+            if (count == 0 || itemCount < count)
+            {
+                zetan = cachedZeta(itemCount, theta);
+            }
+            else
+            {
+                zetan = zeta(count, itemCount, theta, zetan);
+            }
+
+            count = itemCount;
+            eta   = (1 - Math.pow(2.0 / count, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        public void prepare(long itemCount)
+        {
+            if (itemCount > 0 && itemCount != count)
+            {
+                resize(itemCount);
+            }
+        }
+
+        public long nextIndex(long itemCount)
+        {
+            if (itemCount != count)
+            {
+                resize(itemCount);
+            }
+
+            double u  = ThreadLocalRandom.current().nextDouble();
+            double uz = u * zetan;
+
+            if (uz < 1.0)
+            {
+                return 0;
+            }
+
+            if (uz < 1.0 + Math.pow(0.5, theta))
+            {
+                return Math.min(1, count - 1);
+            }
+
+            return Math.min((long)(count * Math.pow(eta * u - eta + 1, alpha)), count - 1);
+        }
+    }
+
+    /**
+     * Zipfian popularity, but with the popular keys spread across the key
+     * space by an FNV-1a hash instead of clustered at the start of it.
+     */
+    public static class ScrambledZipfian extends Zipfian
+    {
+        private static final long FNV_OFFSET_BASIS_64  = 0xCBF29CE484222325L;
+        private static final long FNV_PRIME_64         = 1099511628211L;
+
+        public ScrambledZipfian(double theta)
+        {
+            super(theta);
+        }
+
+        static long fnvHash64(long value)
+        {
+            long hash = FNV_OFFSET_BASIS_64;
+
+            for (int i = 0; i < 8; i++)
+            {
+                hash ^= value & 0xff;
+                hash *= FNV_PRIME_64;
+                value >>>= 8;
+            }
+
+            return hash;
+        }
+
+        public long nextIndex(long itemCount)
+        {
+            return (fnvHash64(super.nextIndex(itemCount)) & Long.MAX_VALUE) % itemCount;
+        }
+    }
+
+    /**
+     * opsFraction of the requests go to the first keysFraction of the keys,
+     * uniformly; the rest go uniformly to the remaining keys.
+     */
+    public static class Hotspot extends KeyGenerator
+    {
+        private final double opsFraction;
+        private final double keysFraction;
+
+        public Hotspot(double opsFraction, double keysFraction)
+        {
+            this.opsFraction  = opsFraction;
+            this.keysFraction = keysFraction;
+        }
+
+        public long nextIndex(long itemCount)
+        {
+            ThreadLocalRandom rng = ThreadLocalRandom.current();
+            long hotCount         = Math.max(1, Math.min(itemCount, (long)(itemCount * keysFraction)));
+
+            if (hotCount == itemCount || rng.nextDouble() < opsFraction)
+            {
+                return rng.nextLong(hotCount);
+            }
+
+            return hotCount + rng.nextLong(itemCount - hotCount);
+        }
+    }
+
+    /**
+     * Zipfian over the age of a key: the most recently inserted key is the
+     * most popular.
+     */
+    public static class Latest extends Zipfian
+    {
+        public Latest(double theta)
+        {
+            super(theta);
+        }
+
+        public long nextIndex(long itemCount)
+        {
+            return itemCount - 1 - super.nextIndex(itemCount);
+        }
+    }
+
+    /**
+     * Scans the key space in order, each worker starting at its own offset
+     * so that concurrent scans cover different keys.
+     */
+    public static class Sequential extends KeyGenerator
+    {
+        private final int workerId;
+        private final int threadCount;
+        private long next = -1;
+
+        public Sequential(int workerId, int threadCount)
+        {
+            this.workerId     = workerId;
+            this.threadCount  = threadCount;
+        }
+
+        public long nextIndex(long itemCount)
+        {
+            if (next < 0)
+            {
+                next = (itemCount / threadCount) * workerId;
+            }
+
+            if (next >= itemCount)
+            {
+                next = 0;
+            }
+
+            return next++;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Interval and whole-run histograms of each WorkerStats series for one
+ * operation type (or for the whole workload), merged from the workers at
+ * every status tick. All values are in microseconds.
+ */
+public class LatencyStats
+{
+    private final String name;
+    private final Histogram[] interval  = new Histogram[WorkerStats.SERIES_COUNT];
+    private final Histogram[] total     = new Histogram[WorkerStats.SERIES_COUNT];
+    private long intervalBytes          = 0;
+    private long totalBytes             = 0;
+
+    public LatencyStats(String name)
+    {
+        this.name = name;
+
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            interval[series]  = newHistogram();
+            total[series]     = newHistogram();
+        }
+    }
+
+    public static Histogram newHistogram()
+    {
+        return new Histogram(Session.MAX_LATENCY_MICROSECONDS, Session.LATENCY_SIGNIFICANT_DIGITS);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void startInterval()
+    {
+        for (Histogram histogram : interval)
+        {
+            histogram.reset();
+        }
+
+        intervalBytes     = 0;
+    }
+
+    public void add(int series, Histogram histogram)
+    {
+        interval[series].add(histogram);
+    }
+
+    public void addBytes(long bytes)
+    {
+        intervalBytes += bytes;
+    }
+
+    public void add(LatencyStats other)
+    {
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            interval[series].add(other.interval[series]);
+        }
+
+        intervalBytes     += other.intervalBytes;
+    }
+
+    public void finishInterval()
+    {
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            total[series].add(interval[series]);
+        }
+
+        totalBytes     += intervalBytes;
+    }
+
+    public Histogram getInterval(int series)
+    {
+        return interval[series];
+    }
+
+    public Histogram getTotal(int series)
+    {
+        return total[series];
+    }
+
+    /**
+     * Documents are the count of the DOC_LATENCY series, which records each
+     * request once per document, so they always match the requests counted.
+     */
+    public long getIntervalDocuments()
+    {
+        return interval[WorkerStats.DOC_LATENCY].getTotalCount();
+    }
+
+    public long getTotalDocuments()
+    {
+        return total[WorkerStats.DOC_LATENCY].getTotalCount();
+    }
+
+    public long getIntervalBytes()
+    {
+        return intervalBytes;
+    }
+
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    public long getIntervalCount()
+    {
+        return interval[WorkerStats.LATENCY].getTotalCount();
+    }
+
+    public long getTotalCount()
+    {
+        return total[WorkerStats.LATENCY].getTotalCount();
+    }
+}
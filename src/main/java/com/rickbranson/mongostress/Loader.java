@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mongodb.*;
+
+/**
+ * Runs a --load: hands the unfinished partitions of the manifest out to the
+ * workers, which load each one in key order and note their progress in the
+ * manifest after every request, and saves the manifest every interval.
+ */
+public class Loader
+{
+    private final Session session;
+    private final Manifest manifest;
+    private final int[] partitions;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private Loader(Session session, Manifest manifest)
+    {
+        List<Integer> unfinished = new ArrayList<Integer>();
+
+        for (int p = 0; p < manifest.getPartitionCount(); p++)
+        {
+            if (manifest.getPartitionStart(p) + manifest.getLoaded(p) < manifest.getPartitionEnd(p))
+            {
+                unfinished.add(p);
+            }
+        }
+
+        this.session    = session;
+        this.manifest   = manifest;
+        this.partitions = new int[unfinished.size()];
+
+        for (int i = 0; i < partitions.length; i++)
+        {
+            partitions[i] = unfinished.get(i);
+        }
+    }
+
+    /**
+     * Resumes an earlier load of the same number of keys, or empties the
+     * collection and starts a new one. Documents past a partition's last
+     * checkpoint may or may not have landed, so they are removed before
+     * the partition is picked up again.
+     */
+    public static Loader open(Session session) throws IOException
+    {
+        Manifest manifest = Manifest.read(session);
+        Mongo m = session.createConnection();
+
+        try
+        {
+            DBCollection coll = session.getCollection(m);
+
+            if (manifest != null && manifest.getKeys() == session.getRequestCount())
+            {
+                for (int p = 0; p < manifest.getPartitionCount(); p++)
+                {
+                    long resumeAt = manifest.getPartitionStart(p) + manifest.getLoaded(p);
+
+                    if (resumeAt < manifest.getPartitionEnd(p))
+                    {
+                        coll.remove(new BasicDBObject("_id", new BasicDBObject("$gte", KeyGenerator.toKey(resumeAt)).append("$lt", KeyGenerator.toKey(manifest.getPartitionEnd(p)))),
+                                    WriteConcern.SAFE);
+                    }
+                }
+            }
+            else
+            {
+                coll.drop();
+                manifest = Manifest.create(session.getRequestCount(), session.getThreadCount(), session.getBatchSize());
+                manifest.write(session);
+            }
+        }
+        finally
+        {
+            m.close();
+        }
+
+        return new Loader(session, manifest);
+    }
+
+    public Manifest getManifest()
+    {
+        return manifest;
+    }
+
+    public long getRemainingKeys()
+    {
+        return manifest.getKeys() - manifest.getLoadedKeys();
+    }
+
+    /**
+     * Returns the next partition to load, or -1 once all are handed out.
+     */
+    public int claim()
+    {
+        int index = next.getAndIncrement();
+
+        return index < partitions.length ? partitions[index] : -1;
+    }
+
+    public void checkpoint() throws IOException
+    {
+        manifest.write(session);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.mongodb.*;
+
+/**
+ * Records what --load put in the collection, so later runs know the key
+ * space without being told the load's thread count, and an interrupted load
+ * can pick up where it stopped. Keys 0 to keys - 1 are split into
+ * partitions of partitionSize keys, each loaded in key order, and the
+ * manifest holds how many keys of each are known to be in the collection.
+ *
+ * It is kept in the mongostress.manifest collection of the database, under
+ * the collection's name, or in a properties file given with --manifest.
+ */
+public class Manifest
+{
+    public static final String COLLECTION = "mongostress.manifest";
+
+    private static final long MAX_PARTITION_SIZE = 100000;
+    private static final int PARTITIONS_PER_WORKER = 4;
+
+    private final long keys;
+    private final long partitionSize;
+    private final AtomicLongArray loaded;
+
+    public Manifest(long keys, long partitionSize)
+    {
+        this.keys           = keys;
+        this.partitionSize  = partitionSize;
+        this.loaded         = new AtomicLongArray((int)((keys + partitionSize - 1) / partitionSize));
+    }
+
+    /**
+     * Lays out a new load with several partitions per worker, each a whole
+     * number of batches.
+     */
+    public static Manifest create(long keys, int workers, int batchSize)
+    {
+        long size = Math.min(MAX_PARTITION_SIZE, keys / ((long)workers * PARTITIONS_PER_WORKER));
+
+        size = Math.max(1, (size + batchSize - 1) / batchSize) * batchSize;
+
+        return new Manifest(keys, size);
+    }
+
+    /**
+     * Returns the manifest of the last load into the collection, or null if
+     * there is none.
+     */
+    public static Manifest read(Session session) throws IOException
+    {
+        if (session.getManifestFile() != null)
+        {
+            return readFile(session.getManifestFile());
+        }
+
+        Mongo m = session.createConnection();
+
+        try
+        {
+            DBObject stored = manifestCollection(session, m).findOne(new BasicDBObject("_id", session.getCollectionName()));
+
+            if (stored == null)
+            {
+                return null;
+            }
+
+            Manifest manifest   = new Manifest(((Number)stored.get("keys")).longValue(), ((Number)stored.get("partitionSize")).longValue());
+            DBObject loaded     = (DBObject)stored.get("loaded");
+
+            for (int p = 0; p < manifest.getPartitionCount(); p++)
+            {
+                manifest.setLoaded(p, ((Number)loaded.get(Integer.toString(p))).longValue());
+            }
+
+            return manifest;
+        }
+        finally
+        {
+            m.close();
+        }
+    }
+
+    private static Manifest readFile(String path) throws IOException
+    {
+        if (!new File(path).exists())
+        {
+            return null;
+        }
+
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(path);
+
+        try
+        {
+            props.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        Manifest manifest = new Manifest(Long.parseLong(props.getProperty("keys")), Long.parseLong(props.getProperty("partitionSize")));
+
+        for (int p = 0; p < manifest.getPartitionCount(); p++)
+        {
+            manifest.setLoaded(p, Long.parseLong(props.getProperty("loaded." + p)));
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest, waiting for the server to acknowledge it.
+     */
+    public void write(Session session) throws IOException
+    {
+        if (session.getManifestFile() != null)
+        {
+            writeFile(session.getManifestFile());
+            return;
+        }
+
+        BasicDBObject progress = new BasicDBObject();
+
+        for (int p = 0; p < getPartitionCount(); p++)
+        {
+            progress.put(Integer.toString(p), getLoaded(p));
+        }
+
+        BasicDBObject stored = new BasicDBObject("_id", session.getCollectionName());
+
+        stored.put("keys", keys);
+        stored.put("partitionSize", partitionSize);
+        stored.put("complete", isComplete());
+        stored.put("loaded", progress);
+
+        Mongo m = session.createConnection();
+
+        try
+        {
+            manifestCollection(session, m).save(stored, WriteConcern.SAFE);
+        }
+        finally
+        {
+            m.close();
+        }
+    }
+
+    private void writeFile(String path) throws IOException
+    {
+        Properties props = new Properties();
+
+        props.setProperty("keys", Long.toString(keys));
+        props.setProperty("partitionSize", Long.toString(partitionSize));
+        props.setProperty("complete", Boolean.toString(isComplete()));
+
+        for (int p = 0; p < getPartitionCount(); p++)
+        {
+            props.setProperty("loaded." + p, Long.toString(getLoaded(p)));
+        }
+
+        // Written aside and renamed over the old one, so an interruption
+        // never leaves a half-written manifest.
+        File target = new File(path);
+        File temp   = new File(path + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+
+        try
+        {
+            props.store(out, "mongostress load manifest");
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!temp.renameTo(target))
+        {
+            throw new IOException("Unable to replace " + path);
+        }
+    }
+
+    /**
+     * Forgets the load, for when the collection is dropped.
+     */
+    public static void remove(Session session) throws IOException
+    {
+        if (session.getManifestFile() != null)
+        {
+            new File(session.getManifestFile()).delete();
+            return;
+        }
+
+        Mongo m = session.createConnection();
+
+        try
+        {
+            manifestCollection(session, m).remove(new BasicDBObject("_id", session.getCollectionName()));
+        }
+        finally
+        {
+            m.close();
+        }
+    }
+
+    private static DBCollection manifestCollection(Session session, Mongo m)
+    {
+        return m.getDB(session.getDatabaseName()).getCollection(COLLECTION);
+    }
+
+    public long getKeys()
+    {
+        return keys;
+    }
+
+    public int getPartitionCount()
+    {
+        return loaded.length();
+    }
+
+    public long getPartitionStart(int partition)
+    {
+        return partition * partitionSize;
+    }
+
+    public long getPartitionEnd(int partition)
+    {
+        return Math.min(keys, (partition + 1) * partitionSize);
+    }
+
+    /**
+     * Number of keys from the start of the partition known to be loaded.
+     */
+    public long getLoaded(int partition)
+    {
+        return loaded.get(partition);
+    }
+
+    public void setLoaded(int partition, long count)
+    {
+        loaded.set(partition, count);
+    }
+
+    public long getLoadedKeys()
+    {
+        long total = 0;
+
+        for (int p = 0; p < getPartitionCount(); p++)
+        {
+            total += getLoaded(p);
+        }
+
+        return total;
+    }
+
+    public boolean isComplete()
+    {
+        return getLoadedKeys() == keys;
+    }
+}
@@ -47,10 +47,67 @@ public class MongoStress
     {
         final Session session = new Session(arguments);
 
-        if (session.isValid())
+        // Bad options were already reported; only -h is a clean exit.
+        if (!session.isValid())
+        {
+            if (!session.isHelp())
+            {
+                System.exit(1);
+            }
+
+            return;
+        }
+
+        if (session.getProfileImport() != null)
+        {
+            ProfileImporter.convert(session.getProfileImport(), session.getRecordFile());
+        }
+        else if (session.isCoordinator())
+        {
+            new Coordinator(session, arguments).run();
+        }
+        else if (session.isAgent())
+        {
+            new Agent(session.getCoordinatorAddress()).run();
+        }
+        else
+        {
+            run(session, new StressRunner(session));
+        }
+    }
+
+    /**
+     * Runs the workload, with --self-test against an in-process server for
+     * each of the --hosts.
+     */
+    static void run(Session session, StressRunner runner) throws Exception
+    {
+        final List<FakeMongoServer> servers = new ArrayList<FakeMongoServer>();
+
+        if (session.isSelfTest())
+        {
+            List<ServerAddress> hosts = new ArrayList<ServerAddress>();
+
+            for (ServerAddress host : session.getHosts())
+            {
+                FakeMongoServer server = FakeMongoServer.startLocal(session.getHosts().size() > 1 ? 0 : session.getPort());
+                servers.add(server);
+                hosts.add(new ServerAddress(server.getHostname(), server.getPort()));
+            }
+
+            session.setHosts(hosts);
+        }
+
+        try
         {
-            final StressRunner runner = new StressRunner(session);
             runner.start();
         }
+        finally
+        {
+            for (FakeMongoServer server : servers)
+            {
+                server.close();
+            }
+        }
     }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import com.mongodb.MongoException;
+
+/**
+ * How a request ended. Only successful requests are counted under their
+ * operation, so failures cannot inflate throughput or hide in its latency;
+ * each other outcome is reported in a slot of its own, named e.g.
+ * "READ:TIMEOUT". RETRY counts the failed attempts that were retried, with
+ * the latency of each attempt.
+ */
+public class Outcome
+{
+    public static final int SUCCESS       = 0;
+    public static final int DUPLICATE_KEY = 1;
+    public static final int TIMEOUT       = 2;
+    public static final int NETWORK_ERROR = 3;
+    public static final int SERVER_ERROR  = 4;
+    public static final int RETRY         = 5;
+    public static final int COUNT         = 6;
+
+    public static final String[] NAMES = { "SUCCESS", "DUPLICATE_KEY", "TIMEOUT", "NETWORK_ERROR", "SERVER_ERROR", "RETRY" };
+
+    // Error codes the server uses for duplicate keys on insert and update.
+    private static final int DUPLICATE_KEY_CODE         = 11000;
+    private static final int DUPLICATE_KEY_UPDATE_CODE  = 11001;
+
+    /**
+     * Stats slots after the first outcomeBase hold every operation's
+     * outcomes other than SUCCESS, operation by operation.
+     */
+    public static int slot(int outcomeBase, int op, int outcome)
+    {
+        return outcomeBase + op * (COUNT - 1) + outcome - 1;
+    }
+
+    public static String slotName(String operation, int outcome)
+    {
+        return operation + ":" + NAMES[outcome];
+    }
+
+    public static int classify(MongoException ex)
+    {
+        if (ex instanceof MongoException.DuplicateKey || ex.getCode() == DUPLICATE_KEY_CODE || ex.getCode() == DUPLICATE_KEY_UPDATE_CODE)
+        {
+            return DUPLICATE_KEY;
+        }
+
+        for (Throwable cause = ex; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof SocketTimeoutException)
+            {
+                return TIMEOUT;
+            }
+        }
+
+        if (ex instanceof MongoException.Network || ex.getCause() instanceof IOException)
+        {
+            return NETWORK_ERROR;
+        }
+
+        return SERVER_ERROR;
+    }
+
+    /**
+     * Whether the server turned the request away because it is no longer
+     * the primary.
+     */
+    public static boolean isNotMaster(MongoException ex)
+    {
+        return ex.getMessage() != null && ex.getMessage().contains("not master");
+    }
+
+    /**
+     * Timeouts and network errors may go away on their own, e.g. once a
+     * new primary is elected, so they are worth retrying; the rest would
+     * fail again.
+     */
+    public static boolean isRetryable(int outcome)
+    {
+        return outcome == TIMEOUT || outcome == NETWORK_ERROR;
+    }
+}
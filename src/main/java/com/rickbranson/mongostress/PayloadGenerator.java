@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.bson.BSONObject;
+import org.bson.types.ObjectId;
+
+import com.mongodb.*;
+
+/**
+ * Builds document payloads out of pools of values generated once at start
+ * up, so filling in a document on the request path is a handful of random
+ * picks and no allocation. Documents are reused between requests and
+ * refilled in place; with several fields each drawing from its own slice of
+ * a large pool, no two documents are likely to share their content.
+ *
+ * Field types cycle through --field-types: STRING values are random 7-bit
+ * characters, BINARY values are random byte arrays, NUMBER values are
+ * random longs, and NESTED values are sub-documents of --nested-columns
+ * string fields. String and binary sizes follow --size-distribution, and
+ * --compressibility replaces that share of each value with filler, in
+ * short blocks so that block compressors find it too. Without filler,
+ * binary values do not compress at all, and strings only by the one bit
+ * in eight that ASCII leaves unused.
+ */
+public class PayloadGenerator
+{
+    public static final String STRING = "STRING";
+    public static final String NUMBER = "NUMBER";
+    public static final String BINARY = "BINARY";
+    public static final String NESTED = "NESTED";
+
+    public static final List<String> FIELD_TYPES = Arrays.asList(STRING, NUMBER, BINARY, NESTED);
+
+    public static final int MAX_BSON_SIZE = 16 * 1024 * 1024;
+
+    private static final char[] RANDOM_STRING_CHARACTERS = randomStringCharacters();
+    private static final char FILLER_CHARACTER = 'a';
+    private static final long MAX_POOL_BYTES = 32L * 1024 * 1024;
+    private static final int MAX_POOL_SIZE = 64 * 1024;
+    private static final int MIN_POOL_SIZE = 16;
+    private static final int BSON_HEADROOM = 16 * 1024;
+    private static final int FILLER_BLOCK = 64;
+
+    private final String[] fieldNames;
+    private final String[] fieldTypes;
+    private final String[] nestedFieldNames;
+    private final String[] leafPaths;
+    private final String[] leafTypes;
+    private final String[] strings;
+    private final byte[][] binaries;
+    private final Long[] numbers;
+
+    public PayloadGenerator(int fieldCount, int nestedFieldCount, String[] types, int minSize, int maxSize)
+    {
+        this(fieldCount, nestedFieldCount, types, new SizeDistribution(SizeDistribution.UNIFORM, minSize, maxSize, 0), 0, false);
+    }
+
+    /**
+     * Only the pools the field types use are generated, and the binary one
+     * also when blobs are wanted for nextBlob().
+     */
+    public PayloadGenerator(int fieldCount, int nestedFieldCount, String[] types, SizeDistribution sizes, int compressibility, boolean blobs)
+    {
+        final Random rng  = new Random();
+        final int poolSize = poolSize(sizes.getMean());
+        final List<String> used = Arrays.asList(types);
+
+        if ((long)sizedLeafCount(fieldCount, nestedFieldCount, types) * sizes.getMaxSize() > maxValueBytes())
+        {
+            throw new IllegalArgumentException("Documents of " + fieldCount + " fields of up to " + sizes.getMaxSize() + " bytes could exceed the 16 MB BSON limit");
+        }
+
+        fieldNames        = new String[fieldCount];
+        fieldTypes        = new String[fieldCount];
+        nestedFieldNames  = new String[nestedFieldCount];
+
+        List<String> paths      = new ArrayList<String>();
+        List<String> pathTypes  = new ArrayList<String>();
+
+        for (int i = 0; i < nestedFieldCount; i++)
+        {
+            nestedFieldNames[i] = Integer.toString(i);
+        }
+
+        for (int i = 0; i < fieldCount; i++)
+        {
+            fieldNames[i] = Integer.toString(i);
+            fieldTypes[i] = types[i % types.length];
+
+            if (fieldTypes[i].equals(NESTED))
+            {
+                for (String nested : nestedFieldNames)
+                {
+                    paths.add(fieldNames[i] + "." + nested);
+                    pathTypes.add(STRING);
+                }
+            }
+            else
+            {
+                paths.add(fieldNames[i]);
+                pathTypes.add(fieldTypes[i]);
+            }
+        }
+
+        leafPaths = paths.toArray(new String[paths.size()]);
+        leafTypes = pathTypes.toArray(new String[pathTypes.size()]);
+        strings   = new String[used.contains(STRING) || used.contains(NESTED) ? poolSize : 0];
+        binaries  = new byte[used.contains(BINARY) || blobs ? poolSize : 0][];
+        numbers   = new Long[poolSize];
+
+        for (int i = 0; i < poolSize; i++)
+        {
+            numbers[i] = rng.nextLong();
+        }
+
+        for (int i = 0; i < strings.length; i++)
+        {
+            strings[i] = randomString(rng, sizes.next(rng), compressibility);
+        }
+
+        for (int i = 0; i < binaries.length; i++)
+        {
+            binaries[i] = randomBytes(rng, sizes.next(rng), compressibility);
+        }
+    }
+
+    /**
+     * As many values of the given mean size as fit in MAX_POOL_BYTES, but
+     * no fewer than MIN_POOL_SIZE, so pools of multi-megabyte values stay
+     * small.
+     */
+    private static int poolSize(double valueSize)
+    {
+        return (int)Math.max(MIN_POOL_SIZE, Math.min(MAX_POOL_SIZE, MAX_POOL_BYTES / Math.max(1, valueSize)));
+    }
+
+    /**
+     * Number of string or binary values in a document, whose sizes are
+     * generated.
+     */
+    public static int sizedLeafCount(int fieldCount, int nestedFieldCount, String[] types)
+    {
+        int count = 0;
+
+        for (int i = 0; i < fieldCount; i++)
+        {
+            String type = types[i % types.length];
+            count += type.equals(NESTED) ? nestedFieldCount : (type.equals(NUMBER) ? 0 : 1);
+        }
+
+        return count;
+    }
+
+    /**
+     * Total size of the values of a document that keeps it, with room for
+     * its _id, field names and headers, within the BSON limit.
+     */
+    public static int maxValueBytes()
+    {
+        return MAX_BSON_SIZE - BSON_HEADROOM;
+    }
+
+    /**
+     * Every character that is a single byte of UTF-8, except NUL, so each
+     * byte of a string is as random as it can be.
+     */
+    private static char[] randomStringCharacters()
+    {
+        char[] chars = new char[127];
+
+        for (int i = 0; i < chars.length; i++)
+        {
+            chars[i] = (char)(i + 1);
+        }
+
+        return chars;
+    }
+
+    private static String randomString(Random rng, int length)
+    {
+        return randomString(rng, length, 0);
+    }
+
+    /**
+     * The first (100 - compressibility)% of each FILLER_BLOCK characters are
+     * random and the rest repeat one character.
+     */
+    private static String randomString(Random rng, int length, int compressibility)
+    {
+        char[] chars = new char[length];
+
+        for (int j = 0; j < length; j++)
+        {
+            chars[j] = isFiller(j, compressibility) ? FILLER_CHARACTER : RANDOM_STRING_CHARACTERS[rng.nextInt(RANDOM_STRING_CHARACTERS.length)];
+        }
+
+        return new String(chars);
+    }
+
+    private static byte[] randomBytes(Random rng, int length, int compressibility)
+    {
+        byte[] bytes = new byte[length];
+
+        rng.nextBytes(bytes);
+
+        for (int j = 0; j < length; j++)
+        {
+            if (isFiller(j, compressibility))
+            {
+                bytes[j] = 0;
+            }
+        }
+
+        return bytes;
+    }
+
+    private static boolean isFiller(int offset, int compressibility)
+    {
+        return offset % FILLER_BLOCK >= FILLER_BLOCK * (100 - compressibility) / 100;
+    }
+
+    /**
+     * A pool of random strings of exactly length characters, sized like
+     * the document value pools.
+     */
+    public static String[] newStringPool(int length)
+    {
+        final Random rng    = new Random();
+        final String[] pool = new String[poolSize(length)];
+
+        for (int i = 0; i < pool.length; i++)
+        {
+            pool[i] = randomString(rng, length);
+        }
+
+        return pool;
+    }
+
+    public BasicDBObject newDocument()
+    {
+        BasicDBObject doc = new BasicDBObject();
+
+        for (int i = 0; i < fieldNames.length; i++)
+        {
+            doc.put(fieldNames[i], fieldTypes[i].equals(NESTED) ? new BasicDBObject() : null);
+        }
+
+        fill(doc);
+
+        return doc;
+    }
+
+    /**
+     * Replaces every value in a document made by newDocument() with new
+     * picks from the pools.
+     */
+    public void fill(BasicDBObject doc)
+    {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+
+        for (int i = 0; i < fieldNames.length; i++)
+        {
+            if (fieldTypes[i].equals(NESTED))
+            {
+                BasicDBObject nested = (BasicDBObject)doc.get(fieldNames[i]);
+
+                for (String name : nestedFieldNames)
+                {
+                    nested.put(name, strings[rng.nextInt(strings.length)]);
+                }
+            }
+            else
+            {
+                doc.put(fieldNames[i], nextValue(fieldTypes[i], rng));
+            }
+        }
+    }
+
+    private Object nextValue(String type, ThreadLocalRandom rng)
+    {
+        if (type.equals(NUMBER))
+        {
+            return numbers[rng.nextInt(numbers.length)];
+        }
+        else if (type.equals(BINARY))
+        {
+            return binaries[rng.nextInt(binaries.length)];
+        }
+
+        return strings[rng.nextInt(strings.length)];
+    }
+
+    /**
+     * Number of scalar values in a document, counting each field of a
+     * nested sub-document separately.
+     */
+    public int getLeafCount()
+    {
+        return leafPaths.length;
+    }
+
+    /**
+     * Dotted path of a scalar value, usable in $set.
+     */
+    public String getLeafPath(int leaf)
+    {
+        return leafPaths[leaf];
+    }
+
+    /**
+     * The leaf with the given dotted path, or -1 if there is none.
+     */
+    public int indexOfLeaf(String path)
+    {
+        return Arrays.asList(leafPaths).indexOf(path);
+    }
+
+    public Object nextLeafValue(int leaf)
+    {
+        return nextValue(leafTypes[leaf], ThreadLocalRandom.current());
+    }
+
+    public int getFieldCount()
+    {
+        return fieldNames.length;
+    }
+
+    /**
+     * A random binary value, for payloads that are not documents, such as
+     * GridFS files. Only available when the generator was made with blobs.
+     */
+    public byte[] nextBlob()
+    {
+        return binaries[ThreadLocalRandom.current().nextInt(binaries.length)];
+    }
+
+    /**
+     * The BSON size of a value, counting strings as ASCII and leaving out
+     * the type byte and field name a value has inside a document. Cheap
+     * enough for the request path, as it walks fields rather than bytes.
+     */
+    public static int bsonSize(Object value)
+    {
+        if (value instanceof String)
+        {
+            return 4 + ((String)value).length() + 1;
+        }
+        else if (value instanceof byte[])
+        {
+            return 4 + 1 + ((byte[])value).length;
+        }
+        else if (value instanceof BSONObject)
+        {
+            BSONObject document = (BSONObject)value;
+            int size            = 4 + 1;
+
+            for (String key : document.keySet())
+            {
+                size += 1 + key.length() + 1 + bsonSize(document.get(key));
+            }
+
+            return size;
+        }
+        else if (value instanceof Integer)
+        {
+            return 4;
+        }
+        else if (value instanceof Boolean)
+        {
+            return 1;
+        }
+        else if (value instanceof ObjectId)
+        {
+            return 12;
+        }
+        else if (value == null)
+        {
+            return 0;
+        }
+
+        return 8;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+
+/**
+ * One stage of a run: a number of active workers held for a number of
+ * seconds, optionally ramping linearly from the previous phase's worker
+ * count. Phases that are not measured (warm-up) still run requests, but
+ * are left out of the results.
+ */
+public class Phase
+{
+    public static final String WARMUP = "warmup";
+
+    private final String name;
+    private final int threads;
+    private final int seconds;
+    private final boolean ramp;
+    private final boolean measured;
+
+    public Phase(String name, int threads, int seconds, boolean ramp, boolean measured)
+    {
+        this.name     = name;
+        this.threads  = threads;
+        this.seconds  = seconds;
+        this.ramp     = ramp;
+        this.measured = measured;
+    }
+
+    /**
+     * Parses comma-separated NAME:THREADS:SECONDS[:ramp] entries. A phase
+     * named "warmup" is not measured.
+     */
+    public static List<Phase> parse(String spec)
+    {
+        List<Phase> phases = new ArrayList<Phase>();
+
+        for (String entry : spec.split(","))
+        {
+            String[] parts = entry.trim().split(":");
+
+            if (parts.length < 3 || parts.length > 4 || (parts.length == 4 && !parts[3].equalsIgnoreCase("ramp")))
+            {
+                throw new IllegalArgumentException("Bad phase: " + entry);
+            }
+
+            phases.add(new Phase(parts[0],
+                                 Integer.parseInt(parts[1]),
+                                 Integer.parseInt(parts[2]),
+                                 parts.length == 4,
+                                 !parts[0].equalsIgnoreCase(WARMUP)));
+        }
+
+        return phases;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Length of the phase, or 0 to run until --num-keys requests are done.
+     */
+    public int getSeconds()
+    {
+        return seconds;
+    }
+
+    public boolean isMeasured()
+    {
+        return measured;
+    }
+
+    /**
+     * Number of workers that should be active after elapsedSeconds of this
+     * phase, given the number active in the previous phase.
+     */
+    public int getActiveThreads(int previousThreads, double elapsedSeconds)
+    {
+        if (!ramp || seconds == 0)
+        {
+            return threads;
+        }
+
+        double progress = Math.min(1.0, elapsedSeconds / seconds);
+
+        return (int)Math.round(previousThreads + (threads - previousThreads) * progress);
+    }
+}
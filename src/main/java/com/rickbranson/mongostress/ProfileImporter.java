@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONCallback;
+
+import com.mongodb.util.JSON;
+
+/**
+ * Converts a mongoexport JSON dump of a database's system.profile
+ * collection into a trace for --replay. Inserts become INSERT, and queries
+ * and updates by _id become READ and UPDATE on that key; anything else is
+ * skipped. Each operation starts at its profiled time less its duration.
+ */
+public class ProfileImporter
+{
+    private static final String[] OPERATIONS = { "INSERT", "READ", "UPDATE" };
+
+    private static class Entry implements Comparable<Entry>
+    {
+        final int op;
+        final long start;
+        final long latency;
+        final int documents;
+        final int bytes;
+        final String key;
+
+        Entry(int op, long start, long latency, int documents, int bytes, String key)
+        {
+            this.op         = op;
+            this.start      = start;
+            this.latency    = latency;
+            this.documents  = documents;
+            this.bytes      = bytes;
+            this.key        = key;
+        }
+
+        public int compareTo(Entry other)
+        {
+            return start < other.start ? -1 : (start == other.start ? 0 : 1);
+        }
+    }
+
+    /**
+     * Writes the trace and returns the number of operations in it.
+     */
+    public static int convert(String profilePath, String tracePath) throws IOException
+    {
+        final List<Entry> entries = new ArrayList<Entry>();
+        final BufferedReader in   = new BufferedReader(new InputStreamReader(new FileInputStream(profilePath), "UTF-8"));
+        int skipped = 0;
+
+        try
+        {
+            String line;
+
+            while ((line = in.readLine()) != null)
+            {
+                if (line.trim().isEmpty())
+                {
+                    continue;
+                }
+
+                // The plain callback leaves {"$date": ...} as it is, since
+                // exports write dates in more forms than JSONCallback reads.
+                Entry entry = parse((BSONObject)JSON.parse(line, new BasicBSONCallback()), entries.size());
+
+                if (entry != null)
+                {
+                    entries.add(entry);
+                }
+                else
+                {
+                    skipped++;
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        Collections.sort(entries);
+
+        final TraceLog.Writer writer      = new TraceLog.Writer(tracePath, Arrays.asList(OPERATIONS));
+        final TraceLog.Appender appender  = writer.newAppender();
+        final long first                  = entries.isEmpty() ? 0 : entries.get(0).start;
+
+        // The writer takes start times relative to the first one it sees.
+        for (Entry entry : entries)
+        {
+            appender.append(entry.op, 1 + entry.start - first, entry.latency, entry.documents, entry.bytes, entry.key);
+        }
+
+        writer.close();
+
+        System.err.println(String.format("Imported %d operations from %s, skipped %d", entries.size(), profilePath, skipped));
+
+        return entries.size();
+    }
+
+    private static Entry parse(BSONObject profiled, int index)
+    {
+        final String op       = (String)profiled.get("op");
+        final long millis     = number(profiled.get("millis"));
+        final long latency    = millis * 1000 * 1000;
+        final long start      = time(profiled.get("ts")) * 1000 * 1000 - latency;
+        final int bytes       = (int)number(profiled.get("responseLength"));
+        final Object id       = id(profiled.get("query"));
+
+        if ("insert".equals(op))
+        {
+            return new Entry(0, start, latency, Math.max(1, (int)number(profiled.get("ninserted"))), bytes, id != null ? id.toString() : "profile_" + index);
+        }
+        else if ("query".equals(op) && id != null)
+        {
+            return new Entry(1, start, latency, (int)number(profiled.get("nreturned")), bytes, id.toString());
+        }
+        else if ("update".equals(op) && id != null)
+        {
+            return new Entry(2, start, latency, 1, bytes, id.toString());
+        }
+
+        return null;
+    }
+
+    /**
+     * The _id a query selects on, looking inside $query when the query has
+     * modifiers.
+     */
+    private static Object id(Object query)
+    {
+        if (!(query instanceof BSONObject))
+        {
+            return null;
+        }
+
+        BSONObject selector = (BSONObject)query;
+
+        if (selector.containsField("$query"))
+        {
+            return id(selector.get("$query"));
+        }
+
+        Object id = selector.get("_id");
+
+        return id instanceof BSONObject ? null : id;
+    }
+
+    private static long number(Object value)
+    {
+        return value instanceof Number ? ((Number)value).longValue() : 0;
+    }
+
+    /**
+     * Milliseconds since the epoch of {"$date": millis}, {"$date": ISO-8601}
+     * or a bare number.
+     */
+    private static long time(Object value)
+    {
+        Object date = value instanceof BSONObject ? ((BSONObject)value).get("$date") : value;
+
+        if (date instanceof String)
+        {
+            try
+            {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+                return format.parse((String)date).getTime();
+            }
+            catch (ParseException ex)
+            {
+                throw new IllegalArgumentException("Bad profile date: " + date);
+            }
+        }
+
+        return number(date);
+    }
+}
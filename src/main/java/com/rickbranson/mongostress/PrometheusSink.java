@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import org.HdrHistogram.Histogram;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Serves the latest interval in the Prometheus text format on
+ * http://host:--metrics-port/metrics, for scraping during long runs. The
+ * page is built from each interval's rows as they arrive, so a scrape
+ * costs the workers nothing; requests, documents, bytes and failures are
+ * summed over the whole run so they behave as Prometheus counters.
+ */
+public class PrometheusSink implements ResultSink
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Session session;
+    private final HttpServer server;
+    private final Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+    private final Map<String, Double> latencySums = new HashMap<String, Double>();
+    private long networkIn = 0;
+    private long networkOut = 0;
+    private volatile byte[] page = new byte[0];
+
+    public PrometheusSink(Session session, int port) throws IOException
+    {
+        this.session    = session;
+        this.server     = HttpServer.create(new InetSocketAddress(port), 0);
+
+        server.createContext("/metrics", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                byte[] body = page;
+
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+
+        server.start();
+        System.err.println("Serving metrics on port " + server.getAddress().getPort());
+    }
+
+    public void interval(List<ResultRow> rows)
+    {
+        StringBuilder rates     = new StringBuilder();
+        StringBuilder counts    = new StringBuilder();
+        StringBuilder documents = new StringBuilder();
+        StringBuilder bytes     = new StringBuilder();
+        StringBuilder network   = new StringBuilder();
+        StringBuilder latencies = new StringBuilder();
+        StringBuilder failures  = new StringBuilder();
+        StringBuilder retries   = new StringBuilder();
+        StringBuilder samples   = new StringBuilder();
+        ResultRow all           = null;
+
+        for (ResultRow row : rows)
+        {
+            String operation    = row.getOperation();
+            long[] total        = totals.get(operation);
+
+            if (total == null)
+            {
+                total = new long[3];
+                totals.put(operation, total);
+            }
+
+            total[0] += row.getCount();
+            total[1] += row.getDocuments();
+            total[2] += row.getBytes();
+
+            int outcome = operation.indexOf(':');
+
+            if (outcome >= 0)
+            {
+                String op       = operation.substring(0, outcome);
+                String name     = operation.substring(outcome + 1).toLowerCase();
+
+                if (name.equals("retry"))
+                {
+                    sample(retries, "mongostress_retries_total", labels("op", op), total[0]);
+                }
+                else
+                {
+                    sample(failures, "mongostress_failures_total", labels("op", op) + "," + labels("outcome", name), total[0]);
+                }
+
+                continue;
+            }
+
+            // Per-server rows are ALL@host:port.
+            int at          = operation.indexOf('@');
+            String labelSet = at >= 0 ? labels("op", "ALL") + "," + labels("server", operation.substring(at + 1)) : labels("op", operation);
+
+            sample(rates, "mongostress_ops_per_second", labelSet, row.getOpRate());
+            sample(counts, "mongostress_requests_total", labelSet, total[0]);
+            sample(documents, "mongostress_documents_total", labelSet, total[1]);
+            sample(bytes, "mongostress_document_bytes_total", labelSet, total[2]);
+
+            if (at < 0)
+            {
+                addLatencies(latencies, operation, labelSet, row.getHistogram(WorkerStats.LATENCY), total[0]);
+            }
+
+            if (operation.equals("ALL"))
+            {
+                all = row;
+
+                if (row.getNetworkBytesIn() >= 0)
+                {
+                    networkIn  += row.getNetworkBytesIn();
+                    networkOut += row.getNetworkBytesOut();
+                }
+            }
+        }
+
+        if (all != null && all.getNetworkBytesIn() >= 0)
+        {
+            sample(network, "mongostress_network_bytes_total", labels("direction", "in"), networkIn);
+            sample(network, "mongostress_network_bytes_total", labels("direction", "out"), networkOut);
+        }
+
+        if (all != null)
+        {
+            addSamples(samples, ServerStatsSampler.COLUMNS, ServerStatsSampler.DESCRIPTIONS, all.getServerStats());
+            addSamples(samples, JvmMonitor.COLUMNS, JvmMonitor.DESCRIPTIONS, all.getClientStats());
+        }
+
+        StringBuilder out = new StringBuilder();
+
+        metric(out, "mongostress_ops_per_second", "gauge", "Requests completed per second over the last progress interval", rates);
+        metric(out, "mongostress_requests_total", "counter", "Requests completed successfully", counts);
+        metric(out, "mongostress_documents_total", "counter", "Documents written or read by successful requests", documents);
+        metric(out, "mongostress_document_bytes_total", "counter", "Bytes of the documents or GridFS files written or read by successful requests", bytes);
+        metric(out, "mongostress_network_bytes_total", "counter", "Bytes the client received and sent", network);
+        metric(out, "mongostress_latency_seconds", "summary", "Request latency; quantiles over the last progress interval", latencies);
+        metric(out, "mongostress_failures_total", "counter", "Requests that failed, by outcome", failures);
+        metric(out, "mongostress_retries_total", "counter", "Attempts retried after a timeout or network error", retries);
+
+        StringBuilder workers = new StringBuilder();
+        StringBuilder elapsed = new StringBuilder();
+
+        sample(workers, "mongostress_active_workers", "", activeWorkers());
+        sample(elapsed, "mongostress_elapsed_seconds", "", rows.isEmpty() ? 0 : rows.get(0).getElapsedSeconds());
+
+        metric(out, "mongostress_active_workers", "gauge", "Workers issuing requests", workers);
+        metric(out, "mongostress_elapsed_seconds", "gauge", "Time since the run started", elapsed);
+        out.append(samples);
+
+        page = out.toString().getBytes(UTF8);
+    }
+
+    public void summary(List<ResultRow> rows)
+    {
+    }
+
+    public void close() throws IOException
+    {
+        server.stop(0);
+    }
+
+    /**
+     * In a --coordinator run, the configured workers of every agent, since
+     * the coordinator does not follow the agents' phases.
+     */
+    private int activeWorkers()
+    {
+        if (session.isCoordinator())
+        {
+            return session.getCoordinatedAgentCount() * session.getThreadCount();
+        }
+
+        return Math.min(session.getActiveWorkerCount(), session.getThreadCount());
+    }
+
+    private void addLatencies(StringBuilder out, String operation, String labelSet, Histogram latencies, long count)
+    {
+        Double sum = latencySums.get(operation);
+
+        sum = (sum != null ? sum : 0) + latencies.getMean() * latencies.getTotalCount() / (1000 * 1000);
+        latencySums.put(operation, sum);
+
+        if (latencies.getTotalCount() > 0)
+        {
+            for (double quantile : QUANTILES)
+            {
+                sample(out, "mongostress_latency_seconds", labelSet + "," + labels("quantile", String.valueOf(quantile)), latencies.getValueAtPercentile(quantile * 100) / (1000.0 * 1000));
+            }
+        }
+
+        sample(out, "mongostress_latency_seconds_sum", labelSet, sum);
+        sample(out, "mongostress_latency_seconds_count", labelSet, count);
+    }
+
+    /**
+     * --server-stats and --client-stats values as gauges named after their
+     * columns.
+     */
+    private static void addSamples(StringBuilder out, String[] names, String[] descriptions, double[] values)
+    {
+        if (values == null)
+        {
+            return;
+        }
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (!Double.isNaN(values[i]))
+            {
+                StringBuilder value = new StringBuilder();
+                sample(value, "mongostress_" + names[i], "", values[i]);
+                metric(out, "mongostress_" + names[i], "gauge", descriptions[i], value);
+            }
+        }
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help, StringBuilder samples)
+    {
+        if (samples.length() == 0)
+        {
+            return;
+        }
+
+        out.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        out.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+        out.append(samples);
+    }
+
+    private static void sample(StringBuilder out, String name, String labelSet, double value)
+    {
+        out.append(name);
+
+        if (labelSet.length() > 0)
+        {
+            out.append("{").append(labelSet).append("}");
+        }
+
+        out.append(" ").append(value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long)value) : String.valueOf(value)).append("\n");
+    }
+
+    private static String labels(String name, String value)
+    {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
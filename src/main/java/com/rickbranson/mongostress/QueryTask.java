@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import com.mongodb.*;
+
+/**
+ * Finds documents by a random value of --query-field: the documents
+ * equal to it (QUERY_EQ), from it upwards (QUERY_RANGE), or equal to it
+ * and ordered by --sort-field (QUERY_SORTED). Each query reads at most
+ * --query-limit documents, --cursor-batch-size per round trip, and counts
+ * every document it reads.
+ */
+public class QueryTask implements StressTask
+{
+    static final int EQUALITY = 0;
+    static final int RANGE    = 1;
+    static final int SORTED   = 2;
+
+    public static final StressTask.Factory EQUALITY_FACTORY = factory(EQUALITY);
+    public static final StressTask.Factory RANGE_FACTORY    = factory(RANGE);
+    public static final StressTask.Factory SORTED_FACTORY   = factory(SORTED);
+
+    private final int kind;
+    private final PayloadGenerator payload;
+    private final String field;
+    private final int leaf;
+    private final int limit;
+    private final int batchSize;
+    private final BasicDBObject query   = new BasicDBObject();
+    private final BasicDBObject range   = new BasicDBObject();
+    private final BasicDBObject sort;
+
+    public QueryTask(Session session, int kind)
+    {
+        this.kind = kind;
+        payload   = session.getPayloadGenerator();
+        field     = session.getQueryField();
+        leaf      = payload.indexOfLeaf(field);
+        limit     = session.getQueryLimit();
+        batchSize = session.getCursorBatchSize();
+        sort      = new BasicDBObject(session.getSortField(), 1);
+    }
+
+    private static StressTask.Factory factory(final int kind)
+    {
+        return new StressTask.Factory()
+        {
+            public void prepare(Session session)
+            {
+            }
+
+            public StressTask create(Session session)
+            {
+                return new QueryTask(session, kind);
+            }
+        };
+    }
+
+    public int perform(StressWorker context)
+    {
+        Object value = payload.nextLeafValue(leaf);
+
+        if (kind == RANGE)
+        {
+            range.put("$gte", value);
+            query.put(field, range);
+        }
+        else
+        {
+            query.put(field, value);
+        }
+
+        DBCursor cursor = context.getCollection().find(query).limit(limit).batchSize(batchSize);
+        int docs = 0;
+
+        if (kind == SORTED)
+        {
+            cursor.sort(sort);
+        }
+
+        try
+        {
+            while (cursor.hasNext())
+            {
+                context.addBytes(PayloadGenerator.bsonSize(cursor.next()));
+                docs++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return docs;
+    }
+
+    public int getRequestSize()
+    {
+        return 1;
+    }
+
+    public boolean isRead()
+    {
+        return true;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import org.HdrHistogram.Histogram;
+
+import com.mongodb.*;
+
+/**
+ * Column layout shared by the result sinks. Latency series other than the
+ * main one are only reported when the run records them.
+ */
+public class ResultFormat
+{
+    public static final String[] SERIES_NAMES = { "latency", "raw_latency", "doc_latency", "pool_wait_latency" };
+    private static final String[] SERIES_PREFIXES = { "", "raw_", "doc_", "pool_wait_" };
+    private static final String[] STATISTICS = { "avg", "p50", "p90", "p99", "p999", "max" };
+    private static final double MB = 1024 * 1024;
+
+    private final Session session;
+
+    public ResultFormat(Session session)
+    {
+        this.session = session;
+    }
+
+    public boolean isReported(int series)
+    {
+        switch (series)
+        {
+            case WorkerStats.SERVICE_TIME:  return session.isRateLimited();
+            case WorkerStats.DOC_LATENCY:   return session.getBatchSize() > 1;
+            case WorkerStats.POOL_WAIT:     return session.isSharedClient();
+            default:                        return true;
+        }
+    }
+
+    private static double microsToSeconds(double micros)
+    {
+        return micros / (1000 * 1000);
+    }
+
+    private static double[] statistics(Histogram latencies)
+    {
+        return new double[] {
+            microsToSeconds(latencies.getMean()),
+            microsToSeconds(latencies.getValueAtPercentile(50.0)),
+            microsToSeconds(latencies.getValueAtPercentile(90.0)),
+            microsToSeconds(latencies.getValueAtPercentile(99.0)),
+            microsToSeconds(latencies.getValueAtPercentile(99.9)),
+            microsToSeconds(latencies.getMaxValue())
+        };
+    }
+
+    private String phaseColumn(String phase)
+    {
+        return session.getPhases().isEmpty() ? "" : phase + ",";
+    }
+
+    public String csvHeader(String rateName)
+    {
+        StringBuilder header = new StringBuilder(phaseColumn("phase"));
+
+        header.append("op,total,").append(rateName).append("_op_rate,docs,").append(rateName).append("_doc_rate,")
+              .append(rateName).append("_doc_mb_rate,").append(rateName).append("_net_in_mb_rate,").append(rateName).append("_net_out_mb_rate");
+
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            if (isReported(series))
+            {
+                for (String statistic : STATISTICS)
+                {
+                    header.append(",").append(SERIES_PREFIXES[series]).append(statistic).append("_latency");
+                }
+            }
+        }
+
+        header.append(",elapsed_time");
+
+        if (session.isServerStatsSampled())
+        {
+            for (String column : ServerStatsSampler.COLUMNS)
+            {
+                header.append(",").append(column);
+            }
+        }
+
+        if (session.isClientStatsReported())
+        {
+            for (String column : JvmMonitor.COLUMNS)
+            {
+                header.append(",").append(column);
+            }
+        }
+
+        return header.toString();
+    }
+
+    public String csvRow(ResultRow row)
+    {
+        StringBuilder columns = new StringBuilder();
+
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            if (isReported(series))
+            {
+                for (double value : statistics(row.getHistogram(series)))
+                {
+                    columns.append(String.format(",%.6f", value));
+                }
+            }
+        }
+
+        return String.format("%s%s,%d,%d,%d,%d,%.2f,%s,%s%s,%.1f%s%s",
+                             phaseColumn(row.getPhase()),
+                             row.getOperation(),
+                             row.getTotalCount(),
+                             (long)row.getOpRate(),
+                             row.getTotalDocuments(),
+                             (long)row.getDocRate(),
+                             row.getByteRate() / MB,
+                             networkRate(row, row.getNetworkBytesIn()),
+                             networkRate(row, row.getNetworkBytesOut()),
+                             columns,
+                             row.getElapsedSeconds(),
+                             session.isServerStatsSampled() ? sampleColumns(ServerStatsSampler.COLUMNS, row.getServerStats()) : "",
+                             session.isClientStatsReported() ? sampleColumns(JvmMonitor.COLUMNS, row.getClientStats()) : "");
+    }
+
+    /**
+     * Blank for the rows that do not carry network traffic.
+     */
+    private static String networkRate(ResultRow row, long bytes)
+    {
+        return bytes >= 0 && row.getSeconds() > 0 ? String.format("%.2f", bytes / row.getSeconds() / MB) : "";
+    }
+
+    /**
+     * Blank for rows without a sample and for values it left out.
+     */
+    private static String sampleColumns(String[] names, double[] values)
+    {
+        StringBuilder columns = new StringBuilder();
+
+        for (int i = 0; i < names.length; i++)
+        {
+            columns.append(",");
+
+            if (values != null && !Double.isNaN(values[i]))
+            {
+                columns.append(String.format("%.1f", values[i]));
+            }
+        }
+
+        return columns.toString();
+    }
+
+    /**
+     * The row as a document, with latencies in seconds, for the JSON sinks.
+     */
+    public BasicDBObject toDBObject(ResultRow row)
+    {
+        BasicDBObject doc = new BasicDBObject();
+
+        doc.put("phase",      row.getPhase());
+        doc.put("op",         row.getOperation());
+        doc.put("count",      row.getCount());
+        doc.put("docs",       row.getDocuments());
+        doc.put("total",      row.getTotalCount());
+        doc.put("total_docs", row.getTotalDocuments());
+        doc.put("seconds",    row.getSeconds());
+        doc.put("elapsed",    row.getElapsedSeconds());
+        doc.put("op_rate",    row.getOpRate());
+        doc.put("doc_rate",   row.getDocRate());
+        doc.put("bytes",      row.getBytes());
+        doc.put("total_bytes", row.getTotalBytes());
+        doc.put("doc_mb_rate", row.getByteRate() / MB);
+
+        if (row.getNetworkBytesIn() >= 0 && row.getSeconds() > 0)
+        {
+            doc.put("net_in_mb_rate",  row.getNetworkBytesIn() / row.getSeconds() / MB);
+            doc.put("net_out_mb_rate", row.getNetworkBytesOut() / row.getSeconds() / MB);
+        }
+
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            if (isReported(series))
+            {
+                BasicDBObject latencies = new BasicDBObject();
+                double[] values         = statistics(row.getHistogram(series));
+
+                for (int i = 0; i < STATISTICS.length; i++)
+                {
+                    latencies.put(STATISTICS[i], values[i]);
+                }
+
+                doc.put(SERIES_NAMES[series], latencies);
+            }
+        }
+
+        if (row.getServerStats() != null)
+        {
+            doc.put("server", sampleObject(ServerStatsSampler.COLUMNS, row.getServerStats()));
+        }
+
+        if (row.getClientStats() != null)
+        {
+            doc.put("client", sampleObject(JvmMonitor.COLUMNS, row.getClientStats()));
+        }
+
+        return doc;
+    }
+
+    private static BasicDBObject sampleObject(String[] names, double[] values)
+    {
+        BasicDBObject sample = new BasicDBObject();
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (!Double.isNaN(values[i]))
+            {
+                sample.put(names[i], values[i]);
+            }
+        }
+
+        return sample;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The results of one workload operation (or ALL of them) over one status
+ * interval, one phase, or the whole run, as handed to the ResultSinks.
+ * Histograms are indexed by WorkerStats series and are only valid until
+ * the sink call returns.
+ */
+public class ResultRow
+{
+    private final String phase;
+    private final String operation;
+    private final long count;
+    private final long documents;
+    private final long bytes;
+    private final long totalCount;
+    private final long totalDocuments;
+    private final long totalBytes;
+    private final double seconds;
+    private final double elapsedSeconds;
+    private final Histogram[] histograms;
+    private double[] serverStats = null;
+    private double[] clientStats = null;
+    private long networkBytesIn = -1;
+    private long networkBytesOut = -1;
+
+    public ResultRow(String phase, String operation, long count, long documents, long bytes, long totalCount, long totalDocuments, long totalBytes, double seconds, double elapsedSeconds, Histogram[] histograms)
+    {
+        this.phase          = phase;
+        this.operation      = operation;
+        this.count          = count;
+        this.documents      = documents;
+        this.bytes          = bytes;
+        this.totalCount     = totalCount;
+        this.totalDocuments = totalDocuments;
+        this.totalBytes     = totalBytes;
+        this.seconds        = seconds;
+        this.elapsedSeconds = elapsedSeconds;
+        this.histograms     = histograms;
+    }
+
+    private ResultRow copy()
+    {
+        return copy(totalCount, totalDocuments, totalBytes);
+    }
+
+    private ResultRow copy(long totalCount, long totalDocuments, long totalBytes)
+    {
+        ResultRow copy = new ResultRow(phase, operation, count, documents, bytes, totalCount, totalDocuments, totalBytes, seconds, elapsedSeconds, histograms);
+
+        copy.serverStats     = serverStats;
+        copy.clientStats     = clientStats;
+        copy.networkBytesIn  = networkBytesIn;
+        copy.networkBytesOut = networkBytesOut;
+
+        return copy;
+    }
+
+    /**
+     * A copy of this row with other running totals.
+     */
+    public ResultRow withTotals(long totalCount, long totalDocuments, long totalBytes)
+    {
+        return copy(totalCount, totalDocuments, totalBytes);
+    }
+
+    /**
+     * A copy of this row carrying a ServerStatsSampler sample.
+     */
+    public ResultRow withServerStats(double[] serverStats)
+    {
+        ResultRow copy = copy();
+        copy.serverStats = serverStats;
+        return copy;
+    }
+
+    /**
+     * A copy of this row carrying a JvmMonitor sample.
+     */
+    public ResultRow withClientStats(double[] clientStats)
+    {
+        ResultRow copy = copy();
+        copy.clientStats = clientStats;
+        return copy;
+    }
+
+    /**
+     * A copy of this row carrying the bytes the client received and sent
+     * over the period the row covers.
+     */
+    public ResultRow withNetworkBytes(long bytesIn, long bytesOut)
+    {
+        ResultRow copy = copy();
+        copy.networkBytesIn  = bytesIn;
+        copy.networkBytesOut = bytesOut;
+        return copy;
+    }
+
+    public String getPhase()
+    {
+        return phase;
+    }
+
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * Requests completed within the period covered by this row.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getDocuments()
+    {
+        return documents;
+    }
+
+    /**
+     * Bytes of the documents, or GridFS files, written or read.
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Requests completed so far in the phase (or run) this row belongs to.
+     */
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    public long getTotalDocuments()
+    {
+        return totalDocuments;
+    }
+
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * Length of the period covered by this row.
+     */
+    public double getSeconds()
+    {
+        return seconds;
+    }
+
+    /**
+     * Time since the run started, or the measured length of a summary.
+     */
+    public double getElapsedSeconds()
+    {
+        return elapsedSeconds;
+    }
+
+    public double getOpRate()
+    {
+        return seconds > 0 ? count / seconds : 0;
+    }
+
+    public double getDocRate()
+    {
+        return seconds > 0 ? documents / seconds : 0;
+    }
+
+    public double getByteRate()
+    {
+        return seconds > 0 ? bytes / seconds : 0;
+    }
+
+    /**
+     * Bytes the client received over the period, or -1 for rows that do
+     * not carry network traffic, which cannot be split by operation.
+     */
+    public long getNetworkBytesIn()
+    {
+        return networkBytesIn;
+    }
+
+    public long getNetworkBytesOut()
+    {
+        return networkBytesOut;
+    }
+
+    public Histogram getHistogram(int series)
+    {
+        return histograms[series];
+    }
+
+    /**
+     * The server's side of the interval, by ServerStatsSampler.COLUMNS, or
+     * null for rows without one.
+     */
+    public double[] getServerStats()
+    {
+        return serverStats;
+    }
+
+    /**
+     * The client JVM's side of the interval, by JvmMonitor.COLUMNS, or null
+     * for rows without one.
+     */
+    public double[] getClientStats()
+    {
+        return clientStats;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.rickbranson.mongostress;
+
+import java.util.concurrent.*;
+
+import com.mongodb.*;
+
+/**
+ * Polls serverStatus and collStats on a connection of its own, off the
+ * reporting thread, so what the server did can be read next to what the
+ * clients saw. Counters become per-second rates between one sample and
+ * the next; values a server does not report, and the rates of the first
+ * sample, are NaN.
+ */
+public class ServerStatsSampler
+{
+    public static final String[] COLUMNS = {
+        "srv_insert_rate", "srv_query_rate", "srv_update_rate", "srv_delete_rate", "srv_getmore_rate", "srv_command_rate",
+        "srv_lock_pct", "srv_page_fault_rate", "srv_resident_mb", "srv_net_in_rate", "srv_net_out_rate", "srv_index_miss_rate",
+        "coll_count", "coll_data_mb", "coll_index_mb"
+    };
+
+    // What each of the COLUMNS is, for the metrics endpoint.
+    public static final String[] DESCRIPTIONS = {
+        "Server inserts per second", "Server queries per second", "Server updates per second",
+        "Server deletes per second", "Server getmores per second", "Server commands per second",
+        "Percentage of the time the server held its global lock", "Server page faults per second",
+        "Server resident memory in megabytes", "Bytes per second the server received",
+        "Bytes per second the server sent", "Server index misses per second",
+        "Documents in the collection", "Megabytes of data in the collection",
+        "Megabytes of the collection's indexes"
+    };
+
+    private static final String[] OPCOUNTERS = { "insert", "query", "update", "delete", "getmore", "command" };
+
+    // Positions of the raw counters a sample keeps for the next one's
+    // deltas: the opcounters, then these.
+    private static final int LOCK_TIME      = OPCOUNTERS.length;
+    private static final int TOTAL_TIME     = LOCK_TIME + 1;
+    private static final int PAGE_FAULTS    = TOTAL_TIME + 1;
+    private static final int BYTES_IN       = PAGE_FAULTS + 1;
+    private static final int BYTES_OUT      = BYTES_IN + 1;
+    private static final int INDEX_MISSES   = BYTES_OUT + 1;
+    private static final int COUNTERS       = INDEX_MISSES + 1;
+
+    private static final double MB = 1024 * 1024;
+
+    private final Session session;
+    private final Mongo connection;
+    private final ExecutorService executor;
+    private double[] lastCounters = null;
+    private long lastSampledAt = 0;
+    private Future<double[]> pending = null;
+    private boolean warned = false;
+
+    public ServerStatsSampler(Session session)
+    {
+        this.session    = session;
+        this.connection = session.createConnection();
+        this.executor   = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "server-stats");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a sample, unless the last one is still outstanding, and
+     * waits up to timeoutMillis for it. Returns the sample as values for
+     * the COLUMNS, or null when the server has not answered in time or
+     * could not be sampled.
+     */
+    public double[] sample(long timeoutMillis)
+    {
+        if (pending == null)
+        {
+            pending = executor.submit(new Callable<double[]>()
+            {
+                public double[] call()
+                {
+                    return poll();
+                }
+            });
+        }
+
+        try
+        {
+            double[] values = pending.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            pending         = null;
+            return values;
+        }
+        catch (TimeoutException ex)
+        {
+            return null;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException ex)
+        {
+            pending = null;
+
+            if (!warned)
+            {
+                System.err.println("Warning: could not sample server stats: " + ex.getCause());
+                warned = true;
+            }
+
+            return null;
+        }
+    }
+
+    public void close()
+    {
+        executor.shutdownNow();
+        connection.close();
+    }
+
+    private double[] poll()
+    {
+        DB db                   = session.getDB(connection);
+        CommandResult status    = db.command(new BasicDBObject("serverStatus", 1));
+        CommandResult coll      = db.command(new BasicDBObject("collStats", session.getCollectionName()));
+        long now                = System.nanoTime();
+        double[] counters       = new double[COUNTERS];
+        double[] values         = new double[COLUMNS.length];
+
+        status.throwOnError();
+
+        for (int i = 0; i < OPCOUNTERS.length; i++)
+        {
+            counters[i] = number(status, "opcounters." + OPCOUNTERS[i]);
+        }
+
+        counters[LOCK_TIME]     = number(status, "globalLock.lockTime");
+        counters[TOTAL_TIME]    = number(status, "globalLock.totalTime");
+        counters[PAGE_FAULTS]   = number(status, "extra_info.page_faults");
+        counters[BYTES_IN]      = number(status, "network.bytesIn");
+        counters[BYTES_OUT]     = number(status, "network.bytesOut");
+
+        // 2.0 reports index misses at the top of indexCounters, earlier
+        // servers under btree.
+        counters[INDEX_MISSES]  = number(status, "indexCounters.misses");
+
+        if (Double.isNaN(counters[INDEX_MISSES]))
+        {
+            counters[INDEX_MISSES] = number(status, "indexCounters.btree.misses");
+        }
+
+        double seconds = lastCounters != null ? (double)(now - lastSampledAt) / (1000 * 1000 * 1000) : 0;
+
+        for (int i = 0; i < OPCOUNTERS.length; i++)
+        {
+            values[i] = rate(counters, i, seconds);
+        }
+
+        values[6]   = lastCounters != null ? 100 * (counters[LOCK_TIME] - lastCounters[LOCK_TIME]) / (counters[TOTAL_TIME] - lastCounters[TOTAL_TIME]) : Double.NaN;
+        values[7]   = rate(counters, PAGE_FAULTS, seconds);
+        values[8]   = number(status, "mem.resident");
+        values[9]   = rate(counters, BYTES_IN, seconds);
+        values[10]  = rate(counters, BYTES_OUT, seconds);
+        values[11]  = rate(counters, INDEX_MISSES, seconds);
+
+        // The collection may not exist yet, e.g. early in a first INSERT
+        // run, which is not worth failing the sample over.
+        values[12]  = coll.ok() ? number(coll, "count") : Double.NaN;
+        values[13]  = coll.ok() ? number(coll, "size") / MB : Double.NaN;
+        values[14]  = coll.ok() ? number(coll, "totalIndexSize") / MB : Double.NaN;
+
+        lastCounters    = counters;
+        lastSampledAt   = now;
+
+        return values;
+    }
+
+    private double rate(double[] counters, int counter, double seconds)
+    {
+        return lastCounters != null && seconds > 0 ? (counters[counter] - lastCounters[counter]) / seconds : Double.NaN;
+    }
+
+    /**
+     * The number at a dotted path, or NaN when any part of it is missing.
+     */
+    private static double number(DBObject document, String path)
+    {
+        Object value = document;
+
+        for (String key : path.split("\\."))
+        {
+            if (!(value instanceof DBObject))
+            {
+                return Double.NaN;
+            }
+
+            value = ((DBObject)value).get(key);
+        }
+
+        return value instanceof Number ? ((Number)value).doubleValue() : Double.NaN;
+    }
+}
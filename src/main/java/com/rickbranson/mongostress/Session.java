@@ -40,41 +40,170 @@ public class Session
 {
     public static final Options availableOptions = new Options();
     public static final String COLLECTION_NAME = "stress";
-    private static final String RANDOM_STRING_CHARACTERS = "abcdefghijklmnoprstuvwxyz1234567890";
-    private final AtomicInteger executionCounter = new AtomicInteger();
-    private final AtomicLong totalRequestMicroseconds = new AtomicLong();
+    public static final long MAX_LATENCY_MICROSECONDS = 60L * 60 * 1000 * 1000;
+    public static final int LATENCY_SIGNIFICANT_DIGITS = 2;
+    public static final int CLAIM_CHUNK_SIZE = 128;
+    public static final int LIGHTWEIGHT_CONNECTIONS_PER_HOST = 256;
+    private final AtomicLong claimedRequests = new AtomicLong();
+    private final AtomicLong claimedInserts = new AtomicLong();
+    private volatile boolean stopped = false;
+    private volatile int activeWorkers = Integer.MAX_VALUE;
 
     static
     {
         availableOptions.addOption("h", "help",               false,  "Show this help message and exit");
         availableOptions.addOption("d", "node",               true,   "Host node, default:localhost");
         availableOptions.addOption("p", "port",               true,   "Host port, default:27017");
+        availableOptions.addOption(null, "coordinator",       true,   "Coordinate this many --agent processes, which run the workload given here, and report their merged results");
+        availableOptions.addOption(null, "coordinator-port",  true,   "Port the coordinator listens on for agents, default:7878");
+        availableOptions.addOption(null, "agent",             true,   "Run workers for the coordinator at HOST:PORT, taking every other option from it");
+        availableOptions.addOption(null, "self-test",         false,  "Run against an in-process stand-in server instead of --node, to measure the client side on its own");
+        availableOptions.addOption(null, "hosts",             true,   "Comma-separated HOST:PORT seed list, overrides --node and --port");
+        availableOptions.addOption(null, "replica-set",       true,   "Replica set the --hosts belong to; writes go to its primary");
+        availableOptions.addOption(null, "read-preference",   true,   "Where reads go in a --replica-set (PRIMARY, SECONDARY), SECONDARY spreading workers over the secondaries, default:PRIMARY");
+        availableOptions.addOption(null, "mongos",            false,  "Treat the --hosts as mongos routers and spread workers over them round-robin");
         availableOptions.addOption("n", "num-keys",           true,   "Number of documents, default:1000000");
         availableOptions.addOption("i", "progress-interval",  true,   "Progress interval, default:10");
-        availableOptions.addOption("o", "operation",          true,   "Operation to perform (INSERT, READ), default:INSERT");
+        availableOptions.addOption(null, "csv-file",          true,   "Also write the progress and summary lines to this file");
+        availableOptions.addOption(null, "jsonl-file",        true,   "Write every progress line to this file as a JSON object per line");
+        availableOptions.addOption(null, "summary-file",      true,   "Write a JSON summary of the run and its configuration to this file");
+        availableOptions.addOption(null, "histogram-log",     true,   "Write compressed per-interval latency histograms to this HdrHistogram log file");
+        availableOptions.addOption(null, "metrics-port",      true,   "Serve the latest interval's rates, latencies, failures and active workers in the Prometheus text format on this port at /metrics (0 picks a free port)");
+        availableOptions.addOption(null, "server-stats",      false,  "Sample serverStatus and collStats every progress interval and report the server's op, lock, page fault and network rates and the collection's size alongside the client's");
+        availableOptions.addOption(null, "client-stats",      false,  "Report the client JVM's GC pauses, allocation rate, CPU, threads and safepoint time every progress interval alongside its throughput");
+        availableOptions.addOption("T", "duration",           true,   "Run for this many seconds (after any warm-up) instead of until --num-keys requests are done");
+        availableOptions.addOption(null, "warmup",            true,   "Run for this many seconds before measuring; warm-up requests are left out of the results");
+        availableOptions.addOption(null, "phases",            true,   "Comma-separated NAME:THREADS:SECONDS[:ramp] phases, e.g. warmup:50:30,ramp:200:60:ramp,hold:200:300; overrides --threads, --duration and --warmup");
+        availableOptions.addOption(null, "auto-tune",         true,   "Find the most throughput that keeps p99 latency within this many milliseconds, adding --tune-step workers every --tune-seconds up to --threads; overrides --duration, cannot be combined with --phases");
+        availableOptions.addOption(null, "tune-step",         true,   "Workers added per --auto-tune step, default:a tenth of --threads");
+        availableOptions.addOption(null, "tune-seconds",      true,   "Length of each --auto-tune step in seconds, default:10");
+        availableOptions.addOption(null, "tune-plateau",      true,   "Percentage by which a step must raise throughput for --auto-tune to count it as growth, default:5");
+        availableOptions.addOption(null, "deadline",          true,   "Milliseconds a request may take, retries included, before it counts as a TIMEOUT; one value for every operation or OP=MS pairs, e.g. READ=20,INSERT=100, default:none");
+        availableOptions.addOption(null, "retries",           true,   "Times a request is retried after a timeout or network error; one value for every operation or OP=N pairs, default:0");
+        availableOptions.addOption(null, "retry-backoff",     true,   "Milliseconds to wait before the first retry, doubling for each one after, default:10");
+        availableOptions.addOption(null, "load",              false,  "Load --num-keys documents with keys 0 to --num-keys - 1, partitioned across the workers and written with at least SAFE write concern, and record them in a manifest that later runs read their key space from; resumes an interrupted load of the same size");
+        availableOptions.addOption(null, "manifest",          true,   "Keep the --load manifest in this local FILE instead of the mongostress.manifest collection");
+        availableOptions.addOption(null, "record",            true,   "Write every request to a binary trace FILE for --replay; with --import-profile, the trace the profile is converted to");
+        availableOptions.addOption(null, "replay",            true,   "Re-issue the requests of a trace FILE at their recorded start times instead of running --operation or --workload");
+        availableOptions.addOption(null, "replay-speed",      true,   "Replay at this multiple of the recorded speed, 0 for as fast as possible, default:1");
+        availableOptions.addOption(null, "import-profile",    true,   "Convert a mongoexport JSON dump of system.profile into the --record trace and exit");
+        availableOptions.addOption("o", "operation",          true,   "Operation to perform (INSERT, READ, UPDATE, INCREMENT, PUSH, UPSERT, QUERY_EQ, QUERY_RANGE, QUERY_SORTED, GRIDFS_PUT, GRIDFS_GET), default:INSERT");
+        availableOptions.addOption("W", "workload",           true,   "Weighted operation mix, overrides --operation, e.g. READ=70,UPDATE=20,INSERT=10");
+        availableOptions.addOption("f", "workload-file",      true,   "Properties file of OPERATION=weight lines, overrides --operation");
         availableOptions.addOption("c", "columns",            true,   "Number of fields per document, default:5");
         availableOptions.addOption("S", "column-size",        true,   "Size of field values in bytes, default:34");
+        availableOptions.addOption(null, "column-size-max",   true,   "Upper bound of field value sizes; sizes vary uniformly from --column-size, default:column-size");
+        availableOptions.addOption(null, "size-distribution", true,   "How value sizes vary (FIXED, UNIFORM between --column-size and --column-size-max, LOG_NORMAL with a median of --column-size and a tail up to --column-size-max, by default the 16 MB BSON limit shared between the fields), default:UNIFORM");
+        availableOptions.addOption(null, "size-sigma",        true,   "Shape of the LOG_NORMAL size distribution; larger values give a longer tail of large values, default:1");
+        availableOptions.addOption(null, "compressibility",   true,   "Percentage of every string and binary value that is filler rather than random, from 0 (random bytes, or random 7-bit characters for strings) to 100, default:0");
+        availableOptions.addOption(null, "field-types",       true,   "Comma-separated field types cycled over the columns (STRING, NUMBER, BINARY, NESTED), default:STRING");
+        availableOptions.addOption(null, "nested-columns",    true,   "Number of fields in each NESTED sub-document, default:3");
+        availableOptions.addOption("b", "batch-size",         true,   "Number of documents sent per INSERT request, default:1");
+        availableOptions.addOption(null, "update-growth",     true,   "Make UPDATE set values this many bytes longer than --column-size-max, so updated documents outgrow the space they were inserted into, default:0");
+        availableOptions.addOption(null, "push-size",         true,   "Size in bytes of the values PUSH appends to a document's array, default:column-size");
+        availableOptions.addOption(null, "indexes",           true,   "Comma-separated secondary indexes to build before the run, fields of a compound index joined by + with an optional :-1 for descending, e.g. 0,1+2:-1");
+        availableOptions.addOption(null, "query-field",       true,   "Field the QUERY_EQ, QUERY_RANGE and QUERY_SORTED operations filter on, default:first field of the first index, or the first field");
+        availableOptions.addOption(null, "sort-field",        true,   "Field QUERY_SORTED orders its results by, default:second field of the first index if compound, or _id");
+        availableOptions.addOption(null, "query-limit",       true,   "Most documents a query operation reads, default:10");
+        availableOptions.addOption(null, "cursor-batch-size", true,   "Documents fetched per round trip by query operations (0 leaves it to the server), default:0");
         availableOptions.addOption("t", "threads",            true,   "Number of threads to use, default:50");
+        availableOptions.addOption(null, "shared-client",     false,  "Share one client and connection pool between all threads instead of one client per thread");
+        availableOptions.addOption(null, "connections-per-host", true, "Pooled connections per host for a shared client, default:threads, or with --concurrency the smaller of it and 256");
+        availableOptions.addOption(null, "threads-per-connection", true, "Threads allowed to wait per pooled connection of a shared client, default:enough for every thread");
+        availableOptions.addOption(null, "socket-timeout",    true,   "Socket read timeout in milliseconds (0 waits forever), default:0");
+        availableOptions.addOption(null, "connect-timeout",   true,   "Connect timeout in milliseconds (0 waits forever), default:0");
+        availableOptions.addOption("C", "concurrency",        true,   "Number of concurrent requests, each on a virtual thread (Java 21 and later, otherwise a platform thread with a 256KB stack) sharing one connection pool; overrides --threads. The 2.7 driver does its socket I/O inside synchronized methods, which before Java 24 pins a virtual thread to its carrier, so at most --connections-per-host requests per host are on the wire and the carrier pool is sized to match");
         availableOptions.addOption("w", "write-concern",      true,   "Write concern (FSYNC_SAFE, JOURNAL_SAFE, NONE, NORMAL, SAFE), default:NORMAL");
         availableOptions.addOption("Z", "database-name",      true,   "Database name, default:test");
         availableOptions.addOption("Y", "collection-name",    true,   "Collcetion name, default:stress");
+        availableOptions.addOption("r", "target-rate",        true,   "Open-loop target rate in ops/second across all threads (0 runs closed-loop), default:0");
+        availableOptions.addOption("a", "arrival",            true,   "Arrival process for --target-rate (FIXED, POISSON), default:FIXED");
+        availableOptions.addOption("D", "key-distribution",   true,   "Key access distribution for the operations on existing documents (UNIFORM, ZIPFIAN, SCRAMBLED_ZIPFIAN, HOTSPOT, LATEST, SEQUENTIAL), default:UNIFORM");
+        availableOptions.addOption(null, "zipfian-constant",  true,   "Skew of the ZIPFIAN, SCRAMBLED_ZIPFIAN and LATEST distributions, between 0 and 1 exclusive, default:0.99");
+        availableOptions.addOption(null, "hotspot",           true,   "OPS:KEYS percentages for HOTSPOT, e.g. 80:20 sends 80% of requests to 20% of the keys, default:80:20");
     }
 
     private String optHostname = "";
-    private int optCount = 0;
+    private long optCount = 0;
+    private long optRequestLimit = 0;
+    private List<Phase> optPhases = null;
     private int optPort = 0;
     private int optInterval = 0;
     private String optOperation = "";
     private int optColumns = 0;
     private int optColumnSize = 0;
+    private int optColumnSizeMax = 0;
+    private String[] optFieldTypes = null;
+    private String optSizeDistribution = null;
+    private int optCompressibility = 0;
+    private int optNestedColumns = 0;
     private int optThreads = 0;
+    private int optBatchSize = 0;
+    private boolean optLightweight = false;
+    private boolean optSharedClient = false;
+    private int optConnectionsPerHost = 0;
+    private int optThreadsPerConnection = 0;
+    private int optSocketTimeout = 0;
+    private int optConnectTimeout = 0;
     private WriteConcern optWriteConcern = null;
     private String optDatabaseName = "";
     private String optCollectionName = "";
+    private Workload optWorkload = null;
+    private double optTargetRate = 0;
+    private String optDistribution = "";
+    private double optZipfianTheta = 0;
+    private double optHotspotOps = 0;
+    private double optHotspotKeys = 0;
+    private boolean optPoisson = false;
+    private boolean optSelfTest = false;
+    private AutoTuner optAutoTuner = null;
+    private long[] optDeadlines = null;
+    private int[] optRetries = null;
+    private long optRetryBackoff = 0;
+    private boolean optLoad = false;
+    private String optManifestFile = null;
+    private long keyCount = 0;
+    private Manifest keySpace = null;
+    private long insertBase = 0;
+    private Loader loader = null;
+    private String optRecordFile = null;
+    private String optProfileImport = null;
+    private TraceLog.Reader replay = null;
+    private TraceLog.Writer recorder = null;
+    private List<ServerAddress> optHosts = null;
+    private String optReplicaSet = null;
+    private boolean optSecondaryReads = false;
+    private boolean optMongos = false;
+    private int optCoordinatedAgents = 0;
+    private int optCoordinatorPort = 0;
+    private String optCoordinatorAddress = null;
+    private int agentIndex = 0;
+    private int agentCount = 1;
+    private ResultSink clusterSink = null;
+    private List<DBObject> optIndexes = null;
+    private String optQueryField = "";
+    private String optSortField = "";
+    private int optQueryLimit = 0;
+    private int optCursorBatchSize = 0;
+    private int optUpdateGrowth = 0;
+    private int optPushSize = 0;
+    private String[] growthValues = null;
+    private String[] pushValues = null;
 
+    private PayloadGenerator payload = null;
+    private final CountingSocketFactory network = new CountingSocketFactory();
+    private final Map<String, String> configuration = new TreeMap<String, String>();
+    private String optCsvFile = null;
+    private String optJsonLinesFile = null;
+    private String optSummaryFile = null;
+    private String optHistogramLog = null;
+    private int optMetricsPort = -1;
+    private boolean optServerStats = false;
+    private boolean optClientStats = false;
     private boolean valid = false;
+    private boolean help = false;
 
-    public Session(String[] options) throws ParseException 
+    public Session(String[] options)
     {
         try
         {
@@ -86,35 +215,197 @@ public class Session
                 throw new IllegalArgumentException("help");
             }
 
+            for (Object o : cmd.getOptions())
+            {
+                Option option = (Option) o;
+                configuration.put(option.getLongOpt(), option.hasArg() ? option.getValue() : "true");
+            }
+
             optHostname       = cmd.hasOption("d") ? cmd.getOptionValue("d")                    : "localhost";
-            optPort           = cmd.hasOption("p") ? Integer.parseInt(cmd.getOptionValue("p"))  : 27017;
-            optCount          = cmd.hasOption("n") ? Integer.parseInt(cmd.getOptionValue("n"))  : 1000000;
+            optSelfTest       = cmd.hasOption("self-test");
+            optCoordinatedAgents = cmd.hasOption("coordinator") ? Integer.parseInt(cmd.getOptionValue("coordinator")) : 0;
+            optCoordinatorPort = cmd.hasOption("coordinator-port") ? Integer.parseInt(cmd.getOptionValue("coordinator-port")) : 7878;
+            optCoordinatorAddress = cmd.getOptionValue("agent");
+            optPort           = cmd.hasOption("p") ? Integer.parseInt(cmd.getOptionValue("p"))  : (optSelfTest ? 0 : 27017);
+            optHosts          = parseHosts(cmd.hasOption("hosts") ? cmd.getOptionValue("hosts") : optHostname + ":" + optPort);
+            optReplicaSet     = cmd.getOptionValue("replica-set");
+            optSecondaryReads = parseReadPreference(cmd.hasOption("read-preference") ? cmd.getOptionValue("read-preference") : "PRIMARY");
+            optMongos         = cmd.hasOption("mongos");
+            optCount          = cmd.hasOption("n") ? Long.parseLong(cmd.getOptionValue("n"))    : 1000000;
+            keyCount          = optCount;
             optInterval       = cmd.hasOption("i") ? Integer.parseInt(cmd.getOptionValue("i"))  : 10;
             optOperation      = cmd.hasOption("o") ? cmd.getOptionValue("o")                    : "INSERT";
+            optLoad           = cmd.hasOption("load");
+            optManifestFile   = cmd.getOptionValue("manifest");
+            optRecordFile     = cmd.getOptionValue("record");
+            optProfileImport  = cmd.getOptionValue("import-profile");
+            replay            = openReplay(cmd);
+            optWorkload       = parseWorkload(cmd);
+            optDeadlines      = parsePerOperation(cmd.getOptionValue("deadline"), Long.MAX_VALUE, 1000L * 1000);
+            optRetries        = toInts(parsePerOperation(cmd.getOptionValue("retries"), 0, 1));
+            optRetryBackoff   = (cmd.hasOption("retry-backoff") ? Long.parseLong(cmd.getOptionValue("retry-backoff")) : 10) * 1000 * 1000;
             optColumns        = cmd.hasOption("c") ? Integer.parseInt(cmd.getOptionValue("c"))  : 5;
             optColumnSize     = cmd.hasOption("S") ? Integer.parseInt(cmd.getOptionValue("S"))  : 34;
+            optColumnSizeMax  = cmd.hasOption("column-size-max") ? Integer.parseInt(cmd.getOptionValue("column-size-max")) : optColumnSize;
+            optFieldTypes     = parseFieldTypes(cmd.hasOption("field-types") ? cmd.getOptionValue("field-types") : PayloadGenerator.STRING);
+            optNestedColumns  = cmd.hasOption("nested-columns") ? Integer.parseInt(cmd.getOptionValue("nested-columns")) : 3;
             optThreads        = cmd.hasOption("t") ? Integer.parseInt(cmd.getOptionValue("t"))  : 50;
+            optLightweight    = cmd.hasOption("C");
+            optThreads        = cmd.hasOption("C") ? Integer.parseInt(cmd.getOptionValue("C"))  : optThreads;
+            optCsvFile        = cmd.getOptionValue("csv-file");
+            optJsonLinesFile  = cmd.getOptionValue("jsonl-file");
+            optSummaryFile    = cmd.getOptionValue("summary-file");
+            optHistogramLog   = cmd.getOptionValue("histogram-log");
+            optMetricsPort    = cmd.hasOption("metrics-port") ? Integer.parseInt(cmd.getOptionValue("metrics-port")) : -1;
+            optServerStats    = cmd.hasOption("server-stats");
+            optClientStats    = cmd.hasOption("client-stats");
+            optAutoTuner      = cmd.hasOption("auto-tune") ? new AutoTuner(Double.parseDouble(cmd.getOptionValue("auto-tune")), (cmd.hasOption("tune-plateau") ? Double.parseDouble(cmd.getOptionValue("tune-plateau")) : 5) / 100) : null;
+            optPhases         = parsePhases(cmd);
+            optThreads        = optPhases.isEmpty() ? optThreads : maxPhaseThreads(optPhases);
+            optRequestLimit   = cmd.hasOption("n") || !isTimeBounded(optPhases) ? optCount : Long.MAX_VALUE;
+            optSharedClient   = cmd.hasOption("shared-client") || optLightweight;
+            optConnectionsPerHost = cmd.hasOption("connections-per-host") ? Integer.parseInt(cmd.getOptionValue("connections-per-host")) : (optLightweight ? Math.min(optThreads, LIGHTWEIGHT_CONNECTIONS_PER_HOST) : optThreads);
+            optThreadsPerConnection = cmd.hasOption("threads-per-connection") ? Integer.parseInt(cmd.getOptionValue("threads-per-connection")) : (optThreads + optConnectionsPerHost - 1) / optConnectionsPerHost;
+            optSocketTimeout  = cmd.hasOption("socket-timeout") ? Integer.parseInt(cmd.getOptionValue("socket-timeout")) : 0;
+            optConnectTimeout = cmd.hasOption("connect-timeout") ? Integer.parseInt(cmd.getOptionValue("connect-timeout")) : 0;
+            optBatchSize      = cmd.hasOption("b") ? Integer.parseInt(cmd.getOptionValue("b"))  : 1;
             optWriteConcern   = parseWriteConcern(cmd.hasOption("w") ? cmd.getOptionValue("w")  : "NORMAL");
             optDatabaseName   = cmd.hasOption("Z") ? cmd.getOptionValue("Z")                    : "test";
             optCollectionName = cmd.hasOption("Y") ? cmd.getOptionValue("Y")                    : "stress";
+            optTargetRate     = cmd.hasOption("r") ? Double.parseDouble(cmd.getOptionValue("r")) : 0;
+            optPoisson        = parseArrival(cmd.hasOption("a") ? cmd.getOptionValue("a")     : "FIXED");
+            optDistribution   = parseKeyDistribution(cmd.hasOption("D") ? cmd.getOptionValue("D") : KeyGenerator.UNIFORM);
+            optZipfianTheta   = cmd.hasOption("zipfian-constant") ? Double.parseDouble(cmd.getOptionValue("zipfian-constant")) : 0.99;
+            parseHotspot(cmd.hasOption("hotspot") ? cmd.getOptionValue("hotspot") : "80:20");
+
+            // The zipfian generator divides by 1 - theta, and a theta of 0 or
+            // less is not skewed at all.
+            if (!(optZipfianTheta > 0 && optZipfianTheta < 1))
+            {
+                throw new IllegalArgumentException("--zipfian-constant must be greater than 0 and less than 1: " + optZipfianTheta);
+            }
+
+            optSizeDistribution = parseSizeDistribution(cmd.hasOption("size-distribution") ? cmd.getOptionValue("size-distribution") : SizeDistribution.UNIFORM);
+            optCompressibility  = cmd.hasOption("compressibility") ? Integer.parseInt(cmd.getOptionValue("compressibility")) : 0;
+
+            // A log-normal tail runs up to what fits in a document, unless
+            // capped lower.
+            if (optSizeDistribution.equals(SizeDistribution.LOG_NORMAL) && !cmd.hasOption("column-size-max"))
+            {
+                optColumnSizeMax = Math.max(optColumnSize, PayloadGenerator.maxValueBytes() / Math.max(1, PayloadGenerator.sizedLeafCount(optColumns, optNestedColumns, optFieldTypes)));
+            }
+
+            if (optColumnSizeMax < optColumnSize)
+            {
+                throw new IllegalArgumentException("--column-size-max is smaller than --column-size");
+            }
+
+            if (optCompressibility < 0 || optCompressibility > 100)
+            {
+                throw new IllegalArgumentException("--compressibility is a percentage");
+            }
+
+            payload = new PayloadGenerator(optColumns,
+                                           optNestedColumns,
+                                           optFieldTypes,
+                                           new SizeDistribution(optSizeDistribution, optColumnSize, optColumnSizeMax, cmd.hasOption("size-sigma") ? Double.parseDouble(cmd.getOptionValue("size-sigma")) : 1),
+                                           optCompressibility,
+                                           optWorkload.contains(GridFsTask.PUT));
+
+            optIndexes        = parseIndexes(cmd.hasOption("indexes") ? cmd.getOptionValue("indexes") : "");
+            optQueryField     = cmd.hasOption("query-field") ? cmd.getOptionValue("query-field") : indexField(0, payload.getLeafPath(0));
+            optSortField      = cmd.hasOption("sort-field") ? cmd.getOptionValue("sort-field") : indexField(1, "_id");
+            optQueryLimit     = cmd.hasOption("query-limit") ? Integer.parseInt(cmd.getOptionValue("query-limit")) : 10;
+            optCursorBatchSize = cmd.hasOption("cursor-batch-size") ? Integer.parseInt(cmd.getOptionValue("cursor-batch-size")) : 0;
+
+            optUpdateGrowth   = cmd.hasOption("update-growth") ? Integer.parseInt(cmd.getOptionValue("update-growth")) : 0;
+            optPushSize       = cmd.hasOption("push-size") ? Integer.parseInt(cmd.getOptionValue("push-size")) : optColumnSize;
+            growthValues      = optUpdateGrowth > 0 ? PayloadGenerator.newStringPool(optColumnSizeMax + optUpdateGrowth) : null;
+            pushValues        = optWorkload.contains("PUSH") ? PayloadGenerator.newStringPool(optPushSize) : null;
+
+            if (optLoad && (optBatchSize <= 0 || optCount % optBatchSize != 0))
+            {
+                throw new IllegalArgumentException("--load needs --num-keys to be a multiple of --batch-size");
+            }
+
+            if (optLoad && (optCoordinatedAgents > 0 || optCoordinatorAddress != null))
+            {
+                throw new IllegalArgumentException("--load runs in a single process");
+            }
+
+            // A load's checkpoint may only advance over writes the server has
+            // acknowledged, so it never runs with less than SAFE. A batch that
+            // is sent again after it landed unseen then only fails on its
+            // duplicates, and still writes whatever it had left.
+            if (optLoad)
+            {
+                optWriteConcern = (optWriteConcern.getW() < 1 ? WriteConcern.SAFE : optWriteConcern).continueOnErrorForInsert(true);
+            }
+
+            if (optProfileImport != null && optRecordFile == null)
+            {
+                throw new IllegalArgumentException("--import-profile needs --record");
+            }
+
+            if (optSecondaryReads && optReplicaSet == null)
+            {
+                throw new IllegalArgumentException("--read-preference SECONDARY needs --replica-set");
+            }
+
+            if (optMongos && optReplicaSet != null)
+            {
+                throw new IllegalArgumentException("--mongos and --replica-set cannot be combined");
+            }
+
+            if (payload.indexOfLeaf(optQueryField) < 0 && hasQueries(optWorkload))
+            {
+                throw new IllegalArgumentException("--query-field is not a generated field: " + optQueryField);
+            }
 
             valid = true;
         }
         catch (IllegalArgumentException ex)
         {
-            System.out.println("Options:");
+            reject(ex.getMessage());
+        }
+        catch (ParseException ex)
+        {
+            reject(ex.getMessage());
+        }
+    }
 
-            for (Object o : availableOptions.getOptions())
-            {
-                Option option = (Option) o;
-                String upperCaseName = option.getLongOpt().toUpperCase();
-                System.out.println(String.format("-%s%s, --%s%s%n\t\t%s%n",
-                                    option.getOpt(),
-                                    (option.hasArg()) ? (" " + upperCaseName) : "",
-                                    option.getLongOpt(),
-                                    (option.hasArg()) ? ("=" + upperCaseName) : "",
-                                    option.getDescription()));
-            }
+    /**
+     * Lists the options, then reports why the command line was rejected on
+     * stderr, where it is not scrolled away with them, unless all it did was
+     * ask for -h.
+     */
+    private void reject(String message)
+    {
+        help = "help".equals(message);
+        printUsage();
+
+        if (!help)
+        {
+            System.err.println("Error: " + message);
+        }
+    }
+
+    private static void printUsage()
+    {
+        System.out.println("Options:");
+
+        for (Object o : availableOptions.getOptions())
+        {
+            Option option = (Option) o;
+            String upperCaseName = option.getLongOpt().toUpperCase();
+            String shortForm = (option.getOpt() == null) ? "" : String.format("-%s%s, ",
+                                option.getOpt(),
+                                (option.hasArg()) ? (" " + upperCaseName) : "");
+            System.out.println(String.format("%s--%s%s%n\t\t%s%n",
+                                shortForm,
+                                option.getLongOpt(),
+                                (option.hasArg()) ? ("=" + upperCaseName) : "",
+                                option.getDescription()));
         }
     }
 
@@ -123,13 +414,122 @@ public class Session
         return valid;
     }
 
-    public Mongo createConnection() throws java.net.UnknownHostException
+    /**
+     * Whether the options only asked for -h, which is not an error.
+     */
+    public boolean isHelp()
     {
-        Mongo m = new Mongo(getHostname(), getPort());
+        return help;
+    }
+
+    /**
+     * The options given on the command line, by long name.
+     */
+    public Map<String, String> getConfiguration()
+    {
+        return Collections.unmodifiableMap(configuration);
+    }
+
+    /**
+     * The stdout progress lines, plus whatever result files were asked for.
+     */
+    public List<ResultSink> createResultSinks() throws java.io.IOException
+    {
+        List<ResultSink> sinks  = new ArrayList<ResultSink>();
+        ResultFormat format     = new ResultFormat(this);
+
+        sinks.add(new CsvSink(format, AsyncWriter.forStdout()));
+
+        // An agent's results go to its coordinator, which writes the files.
+        if (clusterSink != null)
+        {
+            sinks.add(clusterSink);
+            return sinks;
+        }
+
+        if (optCsvFile != null)
+        {
+            sinks.add(new CsvSink(format, AsyncWriter.forFile(optCsvFile)));
+        }
+
+        if (optJsonLinesFile != null)
+        {
+            sinks.add(new JsonLinesSink(format, AsyncWriter.forFile(optJsonLinesFile)));
+        }
+
+        if (optSummaryFile != null)
+        {
+            sinks.add(new JsonSummarySink(this, format, AsyncWriter.forFile(optSummaryFile)));
+        }
+
+        if (optHistogramLog != null)
+        {
+            sinks.add(new HistogramLogSink(format, optHistogramLog));
+        }
+
+        if (optMetricsPort >= 0)
+        {
+            sinks.add(new PrometheusSink(this, optMetricsPort));
+        }
+
+        return sinks;
+    }
+
+    private MongoOptions createOptions()
+    {
+        MongoOptions options = new MongoOptions();
+
+        options.socketTimeout   = optSocketTimeout;
+        options.connectTimeout  = optConnectTimeout;
+        options.socketFactory   = network;
+
+        return options;
+    }
+
+    /**
+     * A client for the whole deployment: the replica set, or the first of
+     * the --hosts.
+     */
+    public Mongo createConnection()
+    {
+        return connect(getDeploymentAddresses(), false, false);
+    }
+
+    /**
+     * A client for the given servers, several of which make a replica-set
+     * client. A shared client has --connections-per-host pooled connections
+     * and --threads-per-connection waiting slots for each; slaveOk lets a
+     * client of a single secondary read from it.
+     */
+    public Mongo connect(List<ServerAddress> addresses, boolean shared, boolean slaveOk)
+    {
+        MongoOptions options = createOptions();
+
+        if (shared)
+        {
+            options.connectionsPerHost                           = optConnectionsPerHost;
+            options.threadsAllowedToBlockForConnectionMultiplier = optThreadsPerConnection;
+        }
+
+        Mongo m = addresses.size() > 1 ? new Mongo(addresses, options) : new Mongo(addresses.get(0), options);
         m.setWriteConcern(getWriteConcern());
+
+        if (slaveOk)
+        {
+            m.addOption(Bytes.QUERYOPTION_SLAVEOK);
+        }
+
         return m;
     }
 
+    /**
+     * The seed list of a replica set, otherwise just the first host.
+     */
+    public List<ServerAddress> getDeploymentAddresses()
+    {
+        return optReplicaSet != null ? optHosts : optHosts.subList(0, 1);
+    }
+
     public DB getDB(Mongo connection)
     {
         return connection.getDB(getDatabaseName());
@@ -140,16 +540,18 @@ public class Session
         return getDB(connection).getCollection(getCollectionName());
     }
 
-    public BasicDBObject nextObject()
+    /**
+     * Counts the bytes every client made by this session sends and
+     * receives.
+     */
+    public CountingSocketFactory getNetwork()
     {
-        BasicDBObject dbObject = new BasicDBObject();
-
-        for (int i = 0; i < getFieldCount(); i++)
-        {
-            dbObject.put(Integer.toString(i), randomString(getValueSize()));
-        }
+        return network;
+    }
 
-        return dbObject; 
+    public PayloadGenerator getPayloadGenerator()
+    {
+        return payload;
     }
 
     public String getCollectionName()
@@ -167,21 +569,193 @@ public class Session
         return optPort;
     }
 
+    /**
+     * The --hosts, or --node and --port.
+     */
+    public List<ServerAddress> getHosts()
+    {
+        return optHosts;
+    }
+
+    public String getReplicaSetName()
+    {
+        return optReplicaSet;
+    }
+
+    public boolean isSecondaryReads()
+    {
+        return optSecondaryReads;
+    }
+
+    public boolean isMongosRouting()
+    {
+        return optMongos;
+    }
+
+    /**
+     * Whether this process merges the results of --coordinator agents
+     * instead of running workers.
+     */
+    public boolean isCoordinator()
+    {
+        return optCoordinatedAgents > 0;
+    }
+
+    public int getCoordinatedAgentCount()
+    {
+        return optCoordinatedAgents;
+    }
+
+    public int getCoordinatorPort()
+    {
+        return optCoordinatorPort;
+    }
+
+    /**
+     * Whether this process is an agent waiting for its workload from the
+     * coordinator at getCoordinatorAddress().
+     */
+    public boolean isAgent()
+    {
+        return optCoordinatorAddress != null;
+    }
+
+    public String getCoordinatorAddress()
+    {
+        return optCoordinatorAddress;
+    }
+
+    /**
+     * Makes this the index'th of count agents running the workload: its
+     * workers take the index'th slice of the worker ids, and so of the
+     * keys, and an even share of --num-keys and --target-rate. Results go
+     * to sink instead of the result files.
+     */
+    public void joinCluster(int index, int count, ResultSink sink)
+    {
+        optCoordinatedAgents  = 0;
+        agentIndex            = index;
+        agentCount            = count;
+        clusterSink           = sink;
+
+        if (optRequestLimit != Long.MAX_VALUE)
+        {
+            optRequestLimit = optRequestLimit / count + (index < optRequestLimit % count ? 1 : 0);
+        }
+    }
+
+    /**
+     * Whether this process samples --server-stats: a standalone run or the
+     * coordinator, which samples once for all of its agents.
+     */
+    public boolean isServerStatsSampled()
+    {
+        return optServerStats && clusterSink == null;
+    }
+
+    /**
+     * Whether the results carry --client-stats columns. Agents still
+     * watch their JVM and warn about it, but only a standalone run reports
+     * the numbers, since there is no adding up several clients' CPU.
+     */
+    public boolean isClientStatsReported()
+    {
+        return optClientStats && clusterSink == null && optCoordinatedAgents == 0;
+    }
+
+    public int getAgentIndex()
+    {
+        return agentIndex;
+    }
+
+    public int getAgentCount()
+    {
+        return agentCount;
+    }
+
+    /**
+     * Id of this process's first worker among the workers of all agents.
+     */
+    public int getWorkerIdOffset()
+    {
+        return agentIndex * optThreads;
+    }
+
+    /**
+     * Number of workers across all agents.
+     */
+    public int getTotalThreadCount()
+    {
+        return agentCount * optThreads;
+    }
+
+    /**
+     * Whether the run goes to an in-process FakeMongoServer.
+     */
+    public boolean isSelfTest()
+    {
+        return optSelfTest;
+    }
+
+    /**
+     * Points the run at servers that were started after the options were
+     * parsed, such as the --self-test ones.
+     */
+    public void setHosts(List<ServerAddress> hosts)
+    {
+        optHosts    = hosts;
+        optHostname = hosts.get(0).getHost();
+        optPort     = hosts.get(0).getPort();
+    }
+
     public String getDatabaseName()
     {
         return optDatabaseName;
     }
 
-    public int getRequestCount()
+    public long getRequestCount()
     {
         return optCount; 
     }
 
+    /**
+     * Number of workers: --threads, or --concurrency when given.
+     */
     public int getThreadCount()
     {
         return optThreads;
     }
 
+    /**
+     * Whether all workers share one client and its connection pool.
+     */
+    public boolean isSharedClient()
+    {
+        return optSharedClient;
+    }
+
+    /**
+     * Whether workers run on lightweight threads.
+     */
+    public boolean isLightweight()
+    {
+        return optLightweight;
+    }
+
+    /**
+     * Most requests a shared client has on the wire at once: a pooled
+     * connection for each of them at every host.
+     */
+    public int getConnectionCount()
+    {
+        return optConnectionsPerHost * optHosts.size();
+    }
+
+    public int getBatchSize()
+    {
+        return optBatchSize;
+    }
+
     public int getValueSize()
     {
         return optColumnSize;
@@ -207,43 +781,606 @@ public class Session
         return optOperation;
     }
 
-    public boolean incrementExecutionCounter()
+    public Workload getWorkload()
+    {
+        return optWorkload;
+    }
+
+    public boolean isRateLimited()
+    {
+        return optTargetRate > 0;
+    }
+
+    public double getTargetRate()
+    {
+        return optTargetRate;
+    }
+
+    public boolean isPoissonArrivals()
+    {
+        return optPoisson;
+    }
+
+    /**
+     * The longer values UPDATE sets with --update-growth, or null.
+     */
+    public String[] getGrowthValues()
+    {
+        return growthValues;
+    }
+
+    /**
+     * The values PUSH appends, or null when the workload has no PUSH.
+     */
+    public String[] getPushValues()
+    {
+        return pushValues;
+    }
+
+    /**
+     * Key patterns of the secondary indexes to build before the run.
+     */
+    public List<DBObject> getIndexes()
+    {
+        return optIndexes;
+    }
+
+    public String getQueryField()
+    {
+        return optQueryField;
+    }
+
+    public String getSortField()
+    {
+        return optSortField;
+    }
+
+    public int getQueryLimit()
+    {
+        return optQueryLimit;
+    }
+
+    public int getCursorBatchSize()
+    {
+        return optCursorBatchSize;
+    }
+
+    public String getKeyDistribution()
+    {
+        return optDistribution;
+    }
+
+    public double getZipfianConstant()
+    {
+        return optZipfianTheta;
+    }
+
+    public double getHotspotOpsFraction()
+    {
+        return optHotspotOps;
+    }
+
+    public double getHotspotKeysFraction()
+    {
+        return optHotspotKeys;
+    }
+
+    /**
+     * Hands out up to chunkSize of the remaining --num-keys requests, as the
+     * index of the first one; the claim ends at chunkSize requests or at
+     * getRequestLimit(), whichever comes first. Workers claim a chunk at a
+     * time so they only touch this shared counter once every
+     * CLAIM_CHUNK_SIZE requests. Returns -1 once everything is claimed.
+     */
+    public long claimRequests(long chunkSize)
+    {
+        final long start = claimedRequests.getAndAdd(chunkSize);
+        return start < optRequestLimit ? start : -1;
+    }
+
+    /**
+     * Hands out the next count of this process's insert keys, as the index
+     * of the first one. Inserts count separately from the other requests,
+     * so a mixed workload's inserts still fill the keys after the insert
+     * base without gaps.
+     */
+    public long claimInserts(int count)
+    {
+        return claimedInserts.getAndAdd(count);
+    }
+
+    /**
+     * Number of insert keys this process has handed out so far.
+     */
+    public long getInsertCount()
     {
-        return (executionCounter.incrementAndGet() >= getRequestCount());
+        return claimedInserts.get();
     }
 
-    public int getExecutedRequestCount()
+    /**
+     * Number of requests this process makes, Long.MAX_VALUE when the run is
+     * bounded by time or by a load instead.
+     */
+    public long getRequestLimit()
     {
-        return executionCounter.intValue();
+        return optRequestLimit;
     }
 
-    public void reportRequestLatency(long latencyInNanos)
+    /**
+     * The run's phases, or an empty list when it simply runs --threads
+     * workers until --num-keys requests are done.
+     */
+    public List<Phase> getPhases()
     {
-        totalRequestMicroseconds.addAndGet(latencyInNanos / 1000);
+        return optPhases;
     }
 
-    public long getTotalRequestMicroseconds()
+    /**
+     * Each operation's --deadline in nanoseconds, Long.MAX_VALUE for none.
+     */
+    public long[] getDeadlines()
     {
-        return totalRequestMicroseconds.get();
+        return optDeadlines;
     }
 
-    private String randomString(int length)
+    /**
+     * How many times each operation is retried after a timeout or network
+     * error.
+     */
+    public int[] getRetries()
     {
-        Random rng = new Random();
-        char[] out = new char[length];
+        return optRetries;
+    }
+
+    public long getRetryBackoffNanos()
+    {
+        return optRetryBackoff;
+    }
+
+    /**
+     * Whether this run is a --load rather than a benchmark run.
+     */
+    public boolean isLoad()
+    {
+        return optLoad;
+    }
+
+    public String getManifestFile()
+    {
+        return optManifestFile;
+    }
+
+    /**
+     * Number of keys the operations on existing documents pick from: those
+     * of the loaded manifest if there is one, otherwise --num-keys.
+     */
+    public long getKeyCount()
+    {
+        return keyCount;
+    }
+
+    /**
+     * Whether the key space came from a --load manifest, in which case new
+     * documents go after it.
+     */
+    public boolean isKeySpaceLoaded()
+    {
+        return keySpace != null;
+    }
+
+    public void setKeySpace(Manifest manifest)
+    {
+        keySpace = manifest;
+        keyCount = manifest.getKeys();
+    }
+
+    /**
+     * Index of the first key inserts may use. Keys below it are the key
+     * space and whatever earlier runs inserted after it.
+     */
+    public long getInsertBase()
+    {
+        return insertBase;
+    }
+
+    public void setInsertBase(long index)
+    {
+        insertBase = index;
+    }
+
+    /**
+     * Makes this run the given load, which ends once the keys it has left
+     * are loaded rather than after --num-keys requests.
+     */
+    public void setLoader(Loader loader)
+    {
+        this.loader     = loader;
+        optRequestLimit = Long.MAX_VALUE;
+    }
+
+    public Loader getLoader()
+    {
+        return loader;
+    }
+
+    /**
+     * The trace being replayed, or null.
+     */
+    public TraceLog.Reader getReplay()
+    {
+        return replay;
+    }
 
-        for (int i = 0; i < length; i++)
+    /**
+     * Opens the --record trace, or returns null when the run is not being
+     * recorded.
+     */
+    public TraceLog.Writer startRecording() throws java.io.IOException
+    {
+        if (optRecordFile != null && recorder == null)
         {
-            out[i] = RANDOM_STRING_CHARACTERS.charAt(rng.nextInt(RANDOM_STRING_CHARACTERS.length()));
+            List<String> operations = new ArrayList<String>();
+
+            for (int i = 0; i < optWorkload.size(); i++)
+            {
+                operations.add(optWorkload.getName(i));
+            }
+
+            recorder = new TraceLog.Writer(optRecordFile, operations);
         }
 
-        return new String(out);
+        return recorder;
+    }
+
+    public TraceLog.Writer getRecorder()
+    {
+        return recorder;
+    }
+
+    public String getRecordFile()
+    {
+        return optRecordFile;
+    }
+
+    public String getProfileImport()
+    {
+        return optProfileImport;
+    }
+
+    /**
+     * The --auto-tune search, or null.
+     */
+    public AutoTuner getAutoTuner()
+    {
+        return optAutoTuner;
+    }
+
+    /**
+     * Tells workers to finish the request they are on and exit.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Workers with an id at or above this count idle until it rises.
+     */
+    public void setActiveWorkerCount(int count)
+    {
+        activeWorkers = count;
+    }
+
+    public int getActiveWorkerCount()
+    {
+        return activeWorkers;
     }
 
     private WriteConcern parseWriteConcern(String input)
     {
         return WriteConcern.valueOf(input);
     }
+
+    private List<Phase> parsePhases(CommandLine cmd)
+    {
+        if (cmd.hasOption("phases") && optAutoTuner != null)
+        {
+            throw new IllegalArgumentException("--auto-tune and --phases cannot be combined");
+        }
+
+        if (cmd.hasOption("phases"))
+        {
+            return Phase.parse(cmd.getOptionValue("phases"));
+        }
+
+        List<Phase> phases = new ArrayList<Phase>();
+        int step = cmd.hasOption("tune-step") ? Integer.parseInt(cmd.getOptionValue("tune-step")) : Math.max(1, optThreads / 10);
+
+        if (cmd.hasOption("warmup"))
+        {
+            phases.add(new Phase(Phase.WARMUP, optAutoTuner != null ? step : optThreads, Integer.parseInt(cmd.getOptionValue("warmup")), false, false));
+        }
+
+        if (optAutoTuner != null)
+        {
+            phases.addAll(AutoTuner.steps(step, optThreads, cmd.hasOption("tune-seconds") ? Integer.parseInt(cmd.getOptionValue("tune-seconds")) : 10));
+            return phases;
+        }
+
+        if (cmd.hasOption("T") || !phases.isEmpty())
+        {
+            phases.add(new Phase("run", optThreads, cmd.hasOption("T") ? Integer.parseInt(cmd.getOptionValue("T")) : 0, false, true));
+        }
+
+        return phases;
+    }
+
+    private static int maxPhaseThreads(List<Phase> phases)
+    {
+        int max = 0;
+
+        for (Phase phase : phases)
+        {
+            max = Math.max(max, phase.getThreads());
+        }
+
+        return max;
+    }
+
+    private static boolean isTimeBounded(List<Phase> phases)
+    {
+        return !phases.isEmpty() && phases.get(phases.size() - 1).getSeconds() > 0;
+    }
+
+    private List<ServerAddress> parseHosts(String input)
+    {
+        List<ServerAddress> hosts = new ArrayList<ServerAddress>();
+
+        try
+        {
+            for (String host : input.split(","))
+            {
+                hosts.add(new ServerAddress(host.trim()));
+            }
+        }
+        catch (java.net.UnknownHostException ex)
+        {
+            throw new IllegalArgumentException("Unknown host: " + ex.getMessage());
+        }
+
+        return hosts;
+    }
+
+    private boolean parseReadPreference(String input)
+    {
+        if (!input.equalsIgnoreCase("PRIMARY") && !input.equalsIgnoreCase("SECONDARY"))
+        {
+            throw new IllegalArgumentException("Unknown read preference: " + input);
+        }
+
+        return input.equalsIgnoreCase("SECONDARY");
+    }
+
+    private List<DBObject> parseIndexes(String input)
+    {
+        List<DBObject> indexes = new ArrayList<DBObject>();
+
+        for (String index : input.split(","))
+        {
+            if (index.trim().length() == 0)
+            {
+                continue;
+            }
+
+            BasicDBObject keys = new BasicDBObject();
+
+            for (String key : index.split("\\+"))
+            {
+                String[] parts = key.trim().split(":");
+                keys.put(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+            }
+
+            indexes.add(keys);
+        }
+
+        return indexes;
+    }
+
+    /**
+     * The position'th field of the first index, or fallback.
+     */
+    private String indexField(int position, String fallback)
+    {
+        if (optIndexes.isEmpty() || optIndexes.get(0).keySet().size() <= position)
+        {
+            return fallback;
+        }
+
+        return new ArrayList<String>(optIndexes.get(0).keySet()).get(position);
+    }
+
+    private static boolean hasQueries(Workload workload)
+    {
+        for (int i = 0; i < workload.size(); i++)
+        {
+            if (workload.getName(i).startsWith("QUERY_"))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String parseSizeDistribution(String input)
+    {
+        String distribution = input.trim().toUpperCase();
+
+        if (!SizeDistribution.NAMES.contains(distribution))
+        {
+            throw new IllegalArgumentException("Unknown size distribution: " + input);
+        }
+
+        return distribution;
+    }
+
+    private String[] parseFieldTypes(String input)
+    {
+        String[] types = input.split(",");
+
+        for (int i = 0; i < types.length; i++)
+        {
+            int index = PayloadGenerator.FIELD_TYPES.indexOf(types[i].trim().toUpperCase());
+
+            if (index < 0)
+            {
+                throw new IllegalArgumentException("Unknown field type: " + types[i]);
+            }
+
+            types[i] = PayloadGenerator.FIELD_TYPES.get(index);
+        }
+
+        return types;
+    }
+
+    private TraceLog.Reader openReplay(CommandLine cmd)
+    {
+        if (!cmd.hasOption("replay"))
+        {
+            return null;
+        }
+
+        try
+        {
+            return new TraceLog.Reader(cmd.getOptionValue("replay"), cmd.hasOption("replay-speed") ? Double.parseDouble(cmd.getOptionValue("replay-speed")) : 1);
+        }
+        catch (java.io.IOException ex)
+        {
+            throw new IllegalArgumentException("Unable to read trace: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Parses a value for every operation of the workload, or OP=value
+     * pairs, scaled by scale. Operations left out get defaultValue.
+     */
+    private long[] parsePerOperation(String spec, long defaultValue, long scale)
+    {
+        long[] values = new long[optWorkload.size()];
+
+        Arrays.fill(values, defaultValue);
+
+        if (spec == null)
+        {
+            return values;
+        }
+
+        if (!spec.contains("="))
+        {
+            Arrays.fill(values, Long.parseLong(spec.trim()) * scale);
+            return values;
+        }
+
+        for (String pair : spec.split(","))
+        {
+            String[] parts = pair.split("=");
+            int op = parts.length == 2 ? optWorkload.indexOf(parts[0].trim()) : -1;
+
+            if (op < 0)
+            {
+                throw new IllegalArgumentException("Bad entry for an operation of the workload: " + pair);
+            }
+
+            values[op] = Long.parseLong(parts[1].trim()) * scale;
+        }
+
+        return values;
+    }
+
+    private static int[] toInts(long[] values)
+    {
+        int[] ints = new int[values.length];
+
+        for (int i = 0; i < values.length; i++)
+        {
+            ints[i] = (int)values[i];
+        }
+
+        return ints;
+    }
+
+    private Workload parseWorkload(CommandLine cmd)
+    {
+        if (replay != null)
+        {
+            return Workload.of(replay.getOperations());
+        }
+        else if (cmd.hasOption("load"))
+        {
+            return Workload.single("INSERT");
+        }
+        else if (cmd.hasOption("W"))
+        {
+            return Workload.parse(cmd.getOptionValue("W"));
+        }
+        else if (cmd.hasOption("f"))
+        {
+            try
+            {
+                return Workload.load(cmd.getOptionValue("f"));
+            }
+            catch (java.io.IOException ex)
+            {
+                throw new IllegalArgumentException("Unable to read workload file: " + ex.getMessage());
+            }
+        }
+
+        return Workload.single(optOperation);
+    }
+
+    private String parseKeyDistribution(String input)
+    {
+        String distribution = input.toUpperCase();
+
+        if (!KeyGenerator.DISTRIBUTIONS.contains(distribution))
+        {
+            throw new IllegalArgumentException("Unknown key distribution: " + input);
+        }
+
+        return distribution;
+    }
+
+    private void parseHotspot(String input)
+    {
+        String[] parts = input.split(":");
+
+        if (parts.length != 2)
+        {
+            throw new IllegalArgumentException("Bad hotspot specification: " + input);
+        }
+
+        optHotspotOps   = Double.parseDouble(parts[0]) / 100;
+        optHotspotKeys  = Double.parseDouble(parts[1]) / 100;
+    }
+
+    private boolean parseArrival(String input)
+    {
+        if (input.equalsIgnoreCase("POISSON"))
+        {
+            return true;
+        }
+        else if (input.equalsIgnoreCase("FIXED"))
+        {
+            return false;
+        }
+
+        throw new IllegalArgumentException("Unknown arrival process: " + input);
+    }
 }
 
 
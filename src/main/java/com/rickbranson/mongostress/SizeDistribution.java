@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+
+/**
+ * Sizes of generated values: FIXED at the minimum, UNIFORM between the
+ * minimum and maximum, or LOG_NORMAL around the minimum as its median,
+ * with a long tail towards the maximum whose weight is set by sigma.
+ */
+public class SizeDistribution
+{
+    public static final String FIXED      = "FIXED";
+    public static final String UNIFORM    = "UNIFORM";
+    public static final String LOG_NORMAL = "LOG_NORMAL";
+
+    public static final List<String> NAMES = Arrays.asList(FIXED, UNIFORM, LOG_NORMAL);
+
+    private final String type;
+    private final int minSize;
+    private final int maxSize;
+    private final double sigma;
+
+    public SizeDistribution(String type, int minSize, int maxSize, double sigma)
+    {
+        if (!NAMES.contains(type))
+        {
+            throw new IllegalArgumentException("Unknown size distribution: " + type);
+        }
+
+        this.type     = type;
+        this.minSize  = minSize;
+        this.maxSize  = type.equals(FIXED) ? minSize : maxSize;
+        this.sigma    = sigma;
+    }
+
+    public int next(Random rng)
+    {
+        if (type.equals(LOG_NORMAL))
+        {
+            return (int)Math.max(1, Math.min(maxSize, Math.round(minSize * Math.exp(sigma * rng.nextGaussian()))));
+        }
+
+        return minSize + (maxSize > minSize ? rng.nextInt(maxSize - minSize + 1) : 0);
+    }
+
+    /**
+     * Expected size, ignoring the cut-off at the maximum.
+     */
+    public double getMean()
+    {
+        if (type.equals(LOG_NORMAL))
+        {
+            return Math.min(maxSize, minSize * Math.exp(sigma * sigma / 2));
+        }
+
+        return (minSize + maxSize) / 2.0;
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+}
@@ -33,50 +33,155 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.text.DecimalFormat;
 
 import org.apache.commons.cli.*;
+import org.HdrHistogram.Histogram;
 
 import com.mongodb.*;
 
 public class StressRunner
 {
     public static final int SLEEP_TICK_TIME = 25;
+    public static final int STATS_LANES_PER_CPU = 2;
+    public static final int SERVER_STATS_WAIT = 250;
     private final Session session;
-    private volatile boolean statusRunning = true;
+    private final Workload workload;
+    private final ArrayList<WorkerStats> lanes = new ArrayList<WorkerStats>();
+    private long lastNetworkIn;
+    private long lastNetworkOut;
+    private long intervalNetworkIn;
+    private long intervalNetworkOut;
+    private LatencyStats[] intervalStats;
+    private LatencyStats intervalAllStats;
+    private List<ResultSink> sinks;
+    private ServerStatsSampler sampler;
+    private JvmMonitor monitor;
+    private String[] slotNames;
+    private int outcomeBase;
+
+    /**
+     * Whole-phase (or whole-run) totals built up from the interval stats,
+     * per stats slot: the workload's operations, then the servers when the
+     * requests went to several.
+     */
+    private class Results
+    {
+        final String phase;
+        final LatencyStats[] opStats;
+        final LatencyStats allStats = new LatencyStats("ALL");
+        double seconds = 0;
+        long networkIn = 0;
+        long networkOut = 0;
+
+        Results(String phase)
+        {
+            this.phase    = phase;
+            this.opStats  = new LatencyStats[slotNames.length];
+
+            for (int op = 0; op < slotNames.length; op++)
+            {
+                opStats[op] = new LatencyStats(slotNames[op]);
+            }
+        }
+
+        void addInterval(double intervalSeconds)
+        {
+            for (int op = 0; op < slotNames.length; op++)
+            {
+                opStats[op].startInterval();
+                opStats[op].add(intervalStats[op]);
+                opStats[op].finishInterval();
+            }
+
+            allStats.startInterval();
+            allStats.add(intervalAllStats);
+            allStats.finishInterval();
+
+            seconds    += intervalSeconds;
+            networkIn  += intervalNetworkIn;
+            networkOut += intervalNetworkOut;
+        }
+    }
 
     public StressRunner(final Session session)
     {
-        this.session = session;
+        this.session  = session;
+        this.workload = session.getWorkload();
     }
 
+    /**
+     * Sets up the collection. In a distributed run only the first agent
+     * does this, before it reports ready.
+     */
     private void prepare() throws Exception
     {
-        String op = session.getOperation();
+        if (session.getAgentIndex() > 0)
+        {
+            return;
+        }
 
-        if (op.equalsIgnoreCase("INSERT"))
+        for (int i = 0; i < workload.size(); i++)
         {
-            InsertTask.prepare(session);
+            workload.getFactory(i).prepare(session);
         }
-        else if (op.equalsIgnoreCase("READ"))
+
+        if (!session.getIndexes().isEmpty())
         {
-            GetTask.prepare(session);
+            Mongo m = session.createConnection();
+            DBCollection coll = session.getCollection(m);
+
+            for (DBObject keys : session.getIndexes())
+            {
+                coll.ensureIndex(keys);
+            }
+
+            m.close();
         }
     }
 
-    private StressTask nextTask() throws Exception
+    /**
+     * Called once the workers are ready to go, just before the clock
+     * starts.
+     */
+    /**
+     * Index of the highest key in the collection, or -1 if there is none.
+     * Keys are zero padded, so the greatest string _id is the highest key.
+     */
+    private long highestKeyIndex()
     {
-        String op = session.getOperation();
+        Mongo m = session.createConnection();
 
-        if (op.equalsIgnoreCase("INSERT"))
+        try
         {
-            return new InsertTask(session.nextObject());
+            DBCursor cursor = session.getCollection(m).find(new BasicDBObject("_id", new BasicDBObject("$gte", "")), new BasicDBObject("_id", 1))
+                .sort(new BasicDBObject("_id", -1))
+                .limit(1);
+
+            return cursor.hasNext() ? KeyGenerator.toIndex((String)cursor.next().get("_id")) : -1;
         }
-        else if (op.equalsIgnoreCase("READ"))
+        finally
         {
-            return new GetTask();
+            m.close();
         }
-        else
+    }
+
+    protected void awaitStart() throws Exception
+    {
+    }
+
+    /**
+     * Returns a worker that died of something other than a failed request,
+     * or null.
+     */
+    private static StressWorker findFailedWorker(Collection<StressWorker> workers)
+    {
+        for (StressWorker worker : workers)
         {
-            throw new Exception("Unknown operation provided: " + op);
+            if (worker.getFailure() != null)
+            {
+                return worker;
+            }
         }
+
+        return null;
     }
 
     private boolean areWorkersDead(Collection<StressWorker> workers)
@@ -92,63 +197,481 @@ public class StressRunner
         return true;
     }
 
+    private static Histogram[] intervalHistograms(LatencyStats stats)
+    {
+        Histogram[] histograms = new Histogram[WorkerStats.SERIES_COUNT];
+
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            histograms[series] = stats.getInterval(series);
+        }
+
+        return histograms;
+    }
+
+    private static Histogram[] totalHistograms(LatencyStats stats)
+    {
+        Histogram[] histograms = new Histogram[WorkerStats.SERIES_COUNT];
+
+        for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+        {
+            histograms[series] = stats.getTotal(series);
+        }
+
+        return histograms;
+    }
+
+    private static ResultRow intervalRow(String phase, LatencyStats stats, LatencyStats cumulative, double intervalSeconds, double elapsedSeconds)
+    {
+        return new ResultRow(phase,
+                             stats.getName(),
+                             stats.getIntervalCount(),
+                             stats.getIntervalDocuments(),
+                             stats.getIntervalBytes(),
+                             cumulative.getTotalCount(),
+                             cumulative.getTotalDocuments(),
+                             cumulative.getTotalBytes(),
+                             intervalSeconds,
+                             elapsedSeconds,
+                             intervalHistograms(stats));
+    }
+
+    private static ResultRow totalRow(String phase, LatencyStats stats, double seconds)
+    {
+        return new ResultRow(phase,
+                             stats.getName(),
+                             stats.getTotalCount(),
+                             stats.getTotalDocuments(),
+                             stats.getTotalBytes(),
+                             stats.getTotalCount(),
+                             stats.getTotalDocuments(),
+                             stats.getTotalBytes(),
+                             seconds,
+                             seconds,
+                             totalHistograms(stats));
+    }
+
+    private void addTotalRows(List<ResultRow> rows, Results results)
+    {
+        addTotalRows(rows, results, results.phase);
+    }
+
+    private void addTotalRows(List<ResultRow> rows, Results results, String phase)
+    {
+        if (workload.size() > 1)
+        {
+            for (int op = 0; op < workload.size(); op++)
+            {
+                rows.add(totalRow(phase, results.opStats[op], results.seconds));
+            }
+        }
+
+        rows.add(totalRow(phase, results.allStats, results.seconds).withNetworkBytes(results.networkIn, results.networkOut));
+
+        for (int node = workload.size(); node < outcomeBase; node++)
+        {
+            rows.add(totalRow(phase, results.opStats[node], results.seconds));
+        }
+
+        for (int slot = outcomeBase; slot < slotNames.length; slot++)
+        {
+            if (results.opStats[slot].getTotalCount() > 0)
+            {
+                rows.add(totalRow(phase, results.opStats[slot], results.seconds));
+            }
+        }
+    }
+
+    /**
+     * Drains every lane into the interval stats.
+     */
+    private void collectInterval()
+    {
+        intervalAllStats.startInterval();
+
+        for (WorkerStats lane : lanes)
+        {
+            lane.swap();
+        }
+
+        for (int op = 0; op < slotNames.length; op++)
+        {
+            intervalStats[op].startInterval();
+
+            for (WorkerStats lane : lanes)
+            {
+                for (int series = 0; series < WorkerStats.SERIES_COUNT; series++)
+                {
+                    if (lane.getIntervalHistogram(series, op) != null)
+                    {
+                        intervalStats[op].add(series, lane.getIntervalHistogram(series, op));
+                    }
+                }
+
+                intervalStats[op].addBytes(lane.getIntervalBytes(op));
+            }
+
+            if (op < workload.size())
+            {
+                intervalAllStats.add(intervalStats[op]);
+            }
+        }
+
+        long networkIn      = session.getNetwork().getBytesIn();
+        long networkOut     = session.getNetwork().getBytesOut();
+
+        intervalNetworkIn   = networkIn - lastNetworkIn;
+        intervalNetworkOut  = networkOut - lastNetworkOut;
+        lastNetworkIn       = networkIn;
+        lastNetworkOut      = networkOut;
+    }
+
+    /**
+     * Adds the interval to the results of the current phase and, unless it
+     * is a warm-up, to the results of the whole run, then prints it with
+     * the phase's running totals.
+     */
+    private void reportInterval(Results phaseResults, Results runResults, boolean measured, double intervalSeconds, double elapsedSeconds)
+    {
+        if (intervalSeconds <= 0)
+        {
+            return;
+        }
+
+        phaseResults.addInterval(intervalSeconds);
+
+        if (measured)
+        {
+            runResults.addInterval(intervalSeconds);
+        }
+
+        List<ResultRow> rows = new ArrayList<ResultRow>();
+
+        if (workload.size() > 1)
+        {
+            for (int op = 0; op < workload.size(); op++)
+            {
+                rows.add(intervalRow(phaseResults.phase, intervalStats[op], phaseResults.opStats[op], intervalSeconds, elapsedSeconds));
+            }
+        }
+
+        ResultRow all       = intervalRow(phaseResults.phase, intervalAllStats, phaseResults.allStats, intervalSeconds, elapsedSeconds).withNetworkBytes(intervalNetworkIn, intervalNetworkOut);
+        double[] client     = monitor.sample();
+        String warning      = monitor.check(client, intervalSeconds, intervalAllStats.getInterval(WorkerStats.LATENCY).getValueAtPercentile(99), elapsedSeconds);
+
+        if (warning != null)
+        {
+            System.err.println(warning);
+        }
+
+        if (sampler != null)
+        {
+            all = all.withServerStats(sampler.sample(SERVER_STATS_WAIT));
+        }
+
+        rows.add(session.isClientStatsReported() ? all.withClientStats(client) : all);
+
+        for (int node = workload.size(); node < outcomeBase; node++)
+        {
+            rows.add(intervalRow(phaseResults.phase, intervalStats[node], phaseResults.opStats[node], intervalSeconds, elapsedSeconds));
+        }
+
+        // Failures only get rows once there have been some.
+        for (int slot = outcomeBase; slot < slotNames.length; slot++)
+        {
+            if (phaseResults.opStats[slot].getTotalCount() > 0)
+            {
+                rows.add(intervalRow(phaseResults.phase, intervalStats[slot], phaseResults.opStats[slot], intervalSeconds, elapsedSeconds));
+            }
+        }
+
+        for (ResultSink sink : sinks)
+        {
+            sink.interval(rows);
+        }
+    }
+
     public void start() throws Exception
     {
         final ArrayList<StressWorker> workers = new ArrayList<StressWorker>();
+        final WorkerThreadFactory threads = new WorkerThreadFactory(session.isLightweight(), session.getConnectionCount());
+        final Topology topology = new Topology(session);
+        final List<String> nodes = topology.getNodeNames();
+        final List<Phase> phases = session.getPhases();
+        final TraceLog.Writer recorder = session.startRecording();
 
         prepare();
 
+        // A --load takes its keys from the partitions of its manifest; other
+        // runs pick keys out of what the last load put in the collection.
+        final Loader loader = session.isLoad() ? Loader.open(session) : null;
+
+        if (loader != null)
+        {
+            session.setLoader(loader);
+        }
+        else
+        {
+            Manifest manifest = Manifest.read(session);
+
+            if (manifest != null)
+            {
+                session.setKeySpace(manifest);
+
+                if (!manifest.isComplete())
+                {
+                    System.err.println(String.format("Warning: only %d of the %d keys were loaded; run --load again to finish", manifest.getLoadedKeys(), manifest.getKeys()));
+                }
+            }
+
+            // Inserts in a mixed workload, or after a --load, must not
+            // collide with the documents the other operations are reading,
+            // nor with those an earlier run inserted after them.
+            if (workload.size() > 1 || session.isKeySpaceLoaded())
+            {
+                session.setInsertBase(Math.max(session.getKeyCount(), highestKeyIndex() + 1));
+            }
+        }
+
+        // Requests are also counted against the server that handled them,
+        // as ALL@host:port, when there are several, and each operation's
+        // failures by outcome after that.
+        outcomeBase = workload.size() + (nodes.size() > 1 ? nodes.size() : 0);
+        slotNames   = new String[outcomeBase + workload.size() * (Outcome.COUNT - 1)];
+
+        for (int i = 0; i < outcomeBase; i++)
+        {
+            slotNames[i] = i < workload.size() ? workload.getName(i) : "ALL@" + nodes.get(i - workload.size());
+        }
+
+        for (int op = 0; op < workload.size(); op++)
+        {
+            for (int outcome = Outcome.SUCCESS + 1; outcome < Outcome.COUNT; outcome++)
+            {
+                slotNames[Outcome.slot(outcomeBase, op, outcome)] = Outcome.slotName(workload.getName(op), outcome);
+            }
+        }
+
+        sinks   = session.createResultSinks();
+        sampler = session.isServerStatsSampled() ? new ServerStatsSampler(session) : null;
+
+        // Lightweight workers share a bounded number of stats lanes, so
+        // memory stays flat however many requests are in flight.
+        final int laneCount = session.isLightweight()
+                            ? Math.min(session.getThreadCount(), Runtime.getRuntime().availableProcessors() * STATS_LANES_PER_CPU)
+                            : session.getThreadCount();
+
+        for (int i = 0; i < laneCount; i++)
+        {
+            lanes.add(new WorkerStats(slotNames.length, outcomeBase));
+        }
+
         for (int i = 0; i < session.getThreadCount(); i++)
         {
-            workers.add(new StressWorker(session, i, nextTask()));
+            workers.add(new StressWorker(session, i, topology, lanes.get(i % laneCount), threads));
+        }
+
+        intervalStats     = new LatencyStats[slotNames.length];
+        intervalAllStats  = new LatencyStats("ALL");
+
+        for (int op = 0; op < slotNames.length; op++)
+        {
+            intervalStats[op] = new LatencyStats(slotNames[op]);
         }
 
+        awaitStart();
+
+        monitor         = new JvmMonitor(threads.isVirtual());
+        lastNetworkIn   = session.getNetwork().getBytesIn();
+        lastNetworkOut  = session.getNetwork().getBytesOut();
+
+        final ArrayList<Results> phaseResults = new ArrayList<Results>();
+        final Results runResults  = new Results("all");
+        final AutoTuner tuner     = session.getAutoTuner();
         final long startTs        = System.nanoTime();
         final int interval        = session.getStatusInterval();
         final int epochIntervals  = (interval * 1000) / SLEEP_TICK_TIME; // problem? 
 
         boolean terminate         = false;
+        boolean proceed           = true;
+        StressWorker failed       = null;
         int epoch                 = 0;
-        long lastReqTotalTime     = 0;
-        int lastTotal             = 0;
+        int phaseIndex            = 0;
+        int previousThreads       = 0;
+        long phaseStartTs         = startTs;
+        long lastReportTs         = startTs;
+        Phase phase               = phases.isEmpty() ? null : phases.get(0);
+        Results current           = new Results(phase != null ? phase.getName() : "all");
+
+        if (phase != null)
+        {
+            session.setActiveWorkerCount(phase.getActiveThreads(previousThreads, 0));
+        }
 
         for (StressWorker worker : workers)
         {
             worker.start();
         }
 
-        System.out.println("total,interval_op_rate,avg_latency,elapsed_time");
-
         while (!terminate)
         {
             Thread.sleep(SLEEP_TICK_TIME);
 
-            if (areWorkersDead(workers))
+            // A worker that died would otherwise look like one that ran out
+            // of requests, and the run would carry on short-handed.
+            failed = findFailedWorker(workers);
+
+            if (failed != null)
             {
+                session.stop();
+
+                for (StressWorker worker : workers)
+                {
+                    worker.awaitTermination();
+                }
+
                 terminate = true;
             }
+            else if (areWorkersDead(workers))
+            {
+                terminate = true;
+            }
+
+            final long now              = System.nanoTime();
+            final double phaseSeconds   = (double)(now - phaseStartTs) / (1000 * 1000 * 1000);
+            final boolean phaseOver     = phase != null && phase.getSeconds() > 0 && phaseSeconds >= phase.getSeconds();
+
+            if (phase != null)
+            {
+                session.setActiveWorkerCount(phase.getActiveThreads(previousThreads, phaseSeconds));
+            }
 
             epoch++;
 
-            if (terminate || epoch > epochIntervals)
+            if (terminate || phaseOver || epoch > epochIntervals)
             {
                 epoch = 0;
 
-                int total         = session.getExecutedRequestCount();
-                long reqTotalTime = session.getTotalRequestMicroseconds();
+                collectInterval();
+                reportInterval(current,
+                               runResults,
+                               phase == null || phase.isMeasured(),
+                               (double)(now - lastReportTs) / (1000 * 1000 * 1000),
+                               (double)(now - startTs) / (1000 * 1000 * 1000));
+
+                lastReportTs = now;
+
+                if (loader != null)
+                {
+                    loader.checkpoint();
+                }
+            }
+
+            if (phaseOver || (terminate && phase != null))
+            {
+                if (phase.isMeasured())
+                {
+                    phaseResults.add(current);
+                }
+
+                // --auto-tune stops stepping up workers once a step misses
+                // the SLO or throughput has stopped growing.
+                if (tuner != null && phase.isMeasured() && !terminate && current.seconds > 0)
+                {
+                    proceed = tuner.stepFinished(phase,
+                                                 current.allStats.getTotalCount() / current.seconds,
+                                                 current.allStats.getTotal(WorkerStats.LATENCY).getValueAtPercentile(99));
+                }
+
+                previousThreads = phase.getThreads();
+                phaseStartTs    = now;
+                phaseIndex++;
+
+                if (phaseIndex < phases.size() && !terminate && proceed)
+                {
+                    phase   = phases.get(phaseIndex);
+                    current = new Results(phase.getName());
+
+                    session.setActiveWorkerCount(phase.getActiveThreads(previousThreads, 0));
+                }
+                else
+                {
+                    // Whatever completes after the last phase is not reported.
+                    session.stop();
+
+                    for (StressWorker worker : workers)
+                    {
+                        worker.awaitTermination();
+                    }
+
+                    terminate = true;
+                }
+            }
+        }
+
+        topology.close();
+
+        if (sampler != null)
+        {
+            sampler.close();
+        }
+
+        if (loader != null)
+        {
+            loader.checkpoint();
+            System.err.println(String.format("Loaded %d of %d keys", loader.getManifest().getLoadedKeys(), loader.getManifest().getKeys()));
+        }
+
+        if (recorder != null)
+        {
+            recorder.close();
+        }
+
+        if (monitor.summarize() != null)
+        {
+            System.err.println(monitor.summarize());
+        }
 
-                int reqDelta                = total - lastTotal;
-                long reqTimeDelta           = reqTotalTime - lastReqTotalTime;
-                double reqTimeDeltaSeconds  = (double)reqTimeDelta / (1000 * 1000);
-                double totalSeconds         = (double)(System.nanoTime() - startTs) / (1000 * 1000 * 1000);
-                double latencyDelta         = reqDelta == 0 ? totalSeconds : reqTimeDeltaSeconds / reqDelta;
+        if (session.getReplay() != null)
+        {
+            session.getReplay().close();
+        }
 
-                System.out.println(String.format("%d,%d,%.6f,%.1f", total, reqDelta / interval, latencyDelta, totalSeconds));
+        List<ResultRow> rows = new ArrayList<ResultRow>();
 
-                lastTotal = total;
-                lastReqTotalTime = reqTotalTime;
+        if (phaseResults.size() > 1)
+        {
+            for (Results results : phaseResults)
+            {
+                addTotalRows(rows, results);
             }
         }
+
+        addTotalRows(rows, runResults);
+
+        // The knee is reported again as its own phase, after the rest.
+        if (tuner != null)
+        {
+            for (Results results : phaseResults)
+            {
+                if (tuner.getKnee() != null && results.phase.equals(tuner.getKnee().getName()))
+                {
+                    addTotalRows(rows, results, "knee-" + tuner.getKnee().getThreads());
+                }
+            }
+
+            System.err.println(tuner.describe());
+        }
+
+        for (ResultSink sink : sinks)
+        {
+            sink.summary(rows);
+            sink.close();
+        }
+
+        if (failed != null)
+        {
+            throw new IllegalStateException("A worker failed, so the run was cut short", failed.getFailure());
+        }
     }
 }
-
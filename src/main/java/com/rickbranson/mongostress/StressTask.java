@@ -29,7 +29,31 @@ package com.rickbranson.mongostress;
 
 public interface StressTask
 {
-    public void perform(StressWorker context);
+    /**
+     * Returns the number of documents written or read.
+     */
+    public int perform(StressWorker context);
+
+    /**
+     * Number of requests one perform() call counts for against --num-keys.
+     */
+    public int getRequestSize();
+
+    /**
+     * Whether the task only reads, and so may go to a secondary.
+     */
+    public boolean isRead();
+
+    /**
+     * Registered with TaskRegistry under an operation name. prepare() runs
+     * once before any worker starts, create() once per worker.
+     */
+    public interface Factory
+    {
+        public void prepare(Session session) throws Exception;
+
+        public StressTask create(Session session) throws Exception;
+    }
 }
 
 
@@ -28,6 +28,8 @@
 package com.rickbranson.mongostress;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.text.DecimalFormat;
@@ -38,67 +40,567 @@ import com.mongodb.*;
 
 public class StressWorker
 {
+    private static final long IDLE_NANOS = 10L * 1000 * 1000;
+    private static final int MAX_BACKOFF_DOUBLINGS = 16;
+
     private final Thread thread;
     private final Mongo connection;
+    private final Mongo readConnection;
+    private final boolean ownsConnection;
     private final DBCollection coll;
+    private final DBCollection readColl;
+    private DBCollection opColl;
     private final Session session;
     private final int id;
-    private int counter = 0;
-    private static final Random rng = new Random();
+    private final int keyId;
+    private long counter = 0;
+    private final long keyCount;
+    private final long insertBase;
+    private final int workerCount;
+    private final int agentIndex;
+    private final int agentCount;
+    private long claimNext = 0;
+    private long claimEnd = 0;
+    private long insertStart;
+    private long insertNext;
+    private int requestSize;
+    private final KeyGenerator keyGenerator;
+    private final Workload workload;
+    private final StressTask[] tasks;
+    private final WorkerStats stats;
+    private final ArrivalSchedule schedule;
+    private final DB db;
+    private final DB readDb;
+    private final Topology topology;
+    private final Topology.Endpoint writeEndpoint;
+    private final boolean readsPrimary;
+    private int writeNode;
+    private boolean primaryMoved = false;
+    private final int readNode;
+    private final boolean reportsNodes;
+    private final TraceLog.Appender recorder;
+    private final TraceLog.Reader replay;
+    private final TraceLog.Record replayed = new TraceLog.Record();
+    private String requestKey;
+    private String randomKey;
+    private int requestKeys;
+    private long replayIndex;
+    private long requestBytes;
+    private final Loader loader;
+    private final int outcomeBase;
+    private final long[] deadlines;
+    private final int[] retries;
+    private final long retryBackoffNanos;
+    private volatile Throwable failure;
+    private int partition = -1;
+    private long partitionNext;
+    private long partitionEnd;
 
-    public StressWorker(final Session session, final int threadId, final StressTask task) throws java.net.UnknownHostException
+    /**
+     * Workers get their servers from the topology and open their own
+     * connections to them unless --shared-client is given, in which case
+     * the shared clients are left open when they finish.
+     */
+    public StressWorker(final Session session, final int threadId, final Topology topology, final WorkerStats stats, final WorkerThreadFactory threads) throws Exception
     {
-        final StressWorker worker = this;
+        final int globalId = session.getWorkerIdOffset() + threadId;
+        final Topology.Endpoint readEndpoint  = topology.getReadEndpoint(globalId);
 
         this.session  = session;
-        connection    = session.createConnection();
+        this.topology = topology;
+        writeEndpoint = topology.getWriteEndpoint(globalId);
+        readsPrimary  = readEndpoint == writeEndpoint;
+        this.stats    = stats;
+        ownsConnection = !session.isSharedClient();
+        connection    = topology.connect(writeEndpoint);
+        readConnection = (readEndpoint == writeEndpoint) ? connection : topology.connect(readEndpoint);
         coll          = session.getCollection(connection); 
+        readColl      = session.getCollection(readConnection);
+        db            = coll.getDB();
+        readDb        = readColl.getDB();
+        writeNode     = writeEndpoint.getNode();
+        readNode      = readEndpoint.getNode();
+        reportsNodes  = topology.getNodeNames().size() > 1;
         id            = threadId;
+        keyId         = globalId;
+        workload      = session.getWorkload();
+        tasks         = new StressTask[workload.size()];
+        keyCount      = session.getKeyCount();
+        insertBase    = session.getInsertBase();
+        workerCount   = session.getTotalThreadCount();
+        agentIndex    = session.getAgentIndex();
+        agentCount    = session.getAgentCount();
+        loader        = session.getLoader();
+        keyGenerator  = KeyGenerator.create(session, keyId);
+        schedule      = session.isRateLimited() ? new ArrivalSchedule(session.getTargetRate(), session.getTotalThreadCount(), threadId * agentCount + agentIndex, session.isPoissonArrivals()) : null;
+        recorder      = session.getRecorder() != null ? session.getRecorder().newAppender() : null;
+        replay        = session.getReplay();
+        outcomeBase   = workload.size() + (reportsNodes ? topology.getNodeNames().size() : 0);
+        deadlines     = session.getDeadlines();
+        retries       = session.getRetries();
+        retryBackoffNanos = session.getRetryBackoffNanos();
+
+        for (int i = 0; i < workload.size(); i++)
+        {
+            tasks[i] = workload.getFactory(i).create(session);
+        }
+
+        // Zipfian keys need zeta of the key count, which takes a while for
+        // a large one; it is worked out here rather than in the first
+        // request's latency.
+        keyGenerator.prepare(keyGenerator instanceof KeyGenerator.Latest ? latestKeyCount() : keyCount);
 
-        thread = new Thread(new Runnable()
+        thread = threads.newThread(new Runnable()
         {
             public void run()
             {
-                boolean run = true;
-                int i       = 0;
-                long beforeTime;
-                long latency;
+                try
+                {
+                    work();
+                }
+                catch (Throwable ex)
+                {
+                    failure = ex;
+                }
+                finally
+                {
+                    if (ownsConnection)
+                    {
+                        connection.close();
+
+                        if (readConnection != connection)
+                        {
+                            readConnection.close();
+                        }
+                    }
+                }
+            }
+        }, "worker-" + threadId);
+    }
+
+    private void work()
+    {
+        final int weight  = workload.getTotalWeight();
+        boolean idled     = false;
+        int op;
+        int size;
+        int docs;
+        int outcome;
+        int attempts;
+        boolean read;
+        DB opDb;
+        long intendedTime;
+        long beforeTime;
+        long attemptTime;
+        long afterTime;
+        long latency;
+        long keyCounter;
+        long keyNext;
+        int active;
+
+        while (!session.isStopped())
+        {
+            active        = Math.min(session.getActiveWorkerCount(), session.getThreadCount());
+
+            if (id >= active)
+            {
+                idle();
+                idled = true;
+                continue;
+            }
 
-                while (run)
+            // The target rate is shared by the active workers of every
+            // agent, interleaved by agent so they stay evenly spaced.
+            if (schedule != null && schedule.getWorkerCount() != active * agentCount)
+            {
+                schedule.setWorkers(active * agentCount, id * agentCount + agentIndex);
+            }
+
+            if (schedule != null && idled)
+            {
+                schedule.restart();
+            }
+
+            idled         = false;
+
+            // A replay takes its operations and keys from the trace, and
+            // ends with it rather than at --num-keys.
+            if (replay != null && !replay.next(replayed))
+            {
+                break;
+            }
+
+            op            = replay != null ? replayed.op : (weight > 1 ? workload.select(ThreadLocalRandom.current().nextInt(weight)) : 0);
+            size          = tasks[op].getRequestSize();
+            read          = tasks[op].isRead();
+            opColl        = read ? readColl : coll;
+            opDb          = read ? readDb : db;
+
+            // A load ends with the last of its partitions rather than at a
+            // number of requests.
+            if (loader != null && !claimLoadKeys(size))
+            {
+                break;
+            }
+
+            // Claims are whole numbers of requests of this size where there
+            // are enough left; the last request of the run is cut down to
+            // what remains, so batches never go past --num-keys.
+            if (replay == null && loader == null)
+            {
+                if (claimNext == claimEnd)
                 {
-                    run         = !session.incrementExecutionCounter();
-                    beforeTime  = System.nanoTime();
+                    final long chunk = ((Session.CLAIM_CHUNK_SIZE + size - 1) / size) * size;
 
-                    counter++;
+                    claimNext = session.claimRequests(chunk);
 
-                    task.perform(worker);
+                    if (claimNext < 0)
+                    {
+                        break;
+                    }
 
-                    session.reportRequestLatency(System.nanoTime() - beforeTime);
+                    claimEnd  = Math.min(claimNext + chunk, session.getRequestLimit());
                 }
 
-                connection.close();
+                size      = (int)Math.min(size, claimEnd - claimNext);
+                claimNext += size;
+            }
+
+            requestSize   = size;
+            keyCounter    = counter;
+            keyNext       = partitionNext;
+            insertStart   = -1;
+            randomKey     = null;
+            attempts      = 0;
+            intendedTime  = replay != null ? replay.awaitStartTime(replayed) : (schedule != null ? schedule.awaitNextStartTime() : 0);
+            beforeTime    = System.nanoTime();
+
+            // Retries send the same keys again and count toward the
+            // request's latency.
+            while (true)
+            {
+                counter       = keyCounter;
+                insertNext    = insertStart;
+                partitionNext = keyNext;
+                requestKey    = null;
+                requestKeys   = 0;
+                requestBytes  = 0;
+                attemptTime   = System.nanoTime();
+                docs          = 0;
+
+                try
+                {
+                    docs      = attempt(op, opDb, attemptTime);
+                    outcome   = Outcome.SUCCESS;
+                }
+                catch (MongoException ex)
+                {
+                    outcome   = Outcome.classify(ex);
+
+                    if ((!read || readsPrimary) && (outcome == Outcome.NETWORK_ERROR || Outcome.isNotMaster(ex)))
+                    {
+                        primaryMoved = true;
+                    }
+                }
+
+                afterTime     = System.nanoTime();
+
+                if (outcome == Outcome.SUCCESS
+                    || !Outcome.isRetryable(outcome)
+                    || attempts >= retries[op]
+                    || afterTime - beforeTime + backoff(attempts) >= deadlines[op])
+                {
+                    break;
+                }
+
+                stats.recordRequest(Outcome.slot(outcomeBase, op, Outcome.RETRY), 0, afterTime - attemptTime);
+                LockSupport.parkNanos(backoff(attempts));
+                attempts++;
+            }
+
+            // Latency is measured from the intended start time when running
+            // against an arrival schedule, so time spent stuck behind a slow
+            // op is charged to the ops that should have gone out meanwhile.
+            latency       = afterTime - (schedule != null || replay != null ? intendedTime : beforeTime);
+
+            // A request that outlived its deadline would have been given up
+            // on, however it ended. A load's writes are not: they landed, and
+            // sending them again could only fail.
+            if (outcome == Outcome.SUCCESS && afterTime - beforeTime > deadlines[op] && loader == null)
+            {
+                outcome   = Outcome.TIMEOUT;
+            }
+
+            // Duplicates during a load are keys an earlier attempt wrote
+            // without hearing back, and continue-on-error inserts the rest.
+            if (loader != null)
+            {
+                loaded(outcome == Outcome.SUCCESS || outcome == Outcome.DUPLICATE_KEY);
+            }
+
+            if (recorder != null)
+            {
+                recorder.append(op, afterTime - latency, latency, docs, (int)Math.min(Integer.MAX_VALUE, requestBytes), requestKey);
+            }
+
+            if (outcome != Outcome.SUCCESS)
+            {
+                stats.recordRequest(Outcome.slot(outcomeBase, op, outcome), 0, latency);
+                continue;
+            }
+
+            stats.recordRequest(op, docs, requestBytes, latency);
+
+            // Each server's share is kept in the slots after the workload's
+            // operations.
+            if (reportsNodes)
+            {
+                stats.recordRequest(workload.size() + (read && !readsPrimary ? readNode : currentWriteNode()), docs, requestBytes, latency);
+            }
+
+            if (schedule != null || replay != null)
+            {
+                stats.record(WorkerStats.SERVICE_TIME, op, afterTime - beforeTime);
+            }
+        }
+    }
+
+    /**
+     * Documents an update matched, or an upsert wrote, so that writes to
+     * missing keys count no documents just as reads of them do. The server
+     * only says when the write concern waits for it; an unacknowledged
+     * write counts as one, since asking would cost another round trip.
+     */
+    public static int matchedDocuments(WriteResult result)
+    {
+        return result.isLazy() ? 1 : result.getN();
+    }
+
+    /**
+     * The node writes are credited to. The driver only finds a new primary
+     * when it next sends a request, so after a network error or a "not
+     * master" reply the node is looked up again once a request succeeds.
+     */
+    private int currentWriteNode()
+    {
+        if (primaryMoved)
+        {
+            writeNode    = topology.getPrimaryNode(writeEndpoint, connection, writeNode);
+            primaryMoved = false;
+        }
+
+        return writeNode;
+    }
+
+    /**
+     * Sends the request once. Requests on a shared connection check out a
+     * pooled connection first, so the time spent waiting for one can be
+     * recorded separately.
+     */
+    private int attempt(int op, DB opDb, long startTime)
+    {
+        if (!ownsConnection)
+        {
+            opDb.requestStart();
+            opDb.requestEnsureConnection();
+            stats.record(WorkerStats.POOL_WAIT, op, System.nanoTime() - startTime);
+        }
+
+        try
+        {
+            return tasks[op].perform(this);
+        }
+        finally
+        {
+            if (!ownsConnection)
+            {
+                opDb.requestDone();
             }
-        });
+        }
+    }
+
+    private void idle()
+    {
+        LockSupport.parkNanos(IDLE_NANOS);
+    }
+
+    /**
+     * The wait before a retry, doubling with each attempt.
+     */
+    private long backoff(int attempts)
+    {
+        return retryBackoffNanos << Math.min(attempts, MAX_BACKOFF_DOUBLINGS);
     }
 
-    public String currentRequestKey()
+    /**
+     * Counts bytes of documents (or files) the current request wrote or
+     * read, as measured by its task.
+     */
+    public void addBytes(long bytes)
     {
-        return getId() + "_" + currentRequestId();
+        requestBytes += bytes;
     }
 
+    /**
+     * Inserts take keys from insertBase on, claiming the request's keys
+     * from the process's insert counter on the first one and interleaving
+     * them with those of the other agents, so the run's inserts fill the
+     * keys after insertBase without gaps. Retries send the keys claimed by
+     * the first attempt. During a --load they take the next key of the
+     * partition being loaded.
+     */
+    public String nextInsertKey()
+    {
+        if (replay != null)
+        {
+            return replayKey();
+        }
+        else if (loader != null)
+        {
+            return requestKey(KeyGenerator.toKey(nextLoadIndex()));
+        }
+
+        if (insertNext < 0)
+        {
+            insertStart = insertNext = session.claimInserts(requestSize);
+        }
+
+        return requestKey(KeyGenerator.toKey(insertBase + insertNext++ * agentCount + agentIndex));
+    }
+
+    /**
+     * Makes sure the partition being loaded has count keys left, moving on
+     * to the next unfinished one if not. Partitions and their checkpoints
+     * are whole batches, so a request never spans two. Returns false once
+     * there are none left.
+     */
+    private boolean claimLoadKeys(int count)
+    {
+        if (partition >= 0 && partitionEnd - partitionNext >= count)
+        {
+            return true;
+        }
+
+        final Manifest manifest = loader.getManifest();
+
+        partition = loader.claim();
+
+        if (partition < 0)
+        {
+            return false;
+        }
+
+        partitionNext = manifest.getPartitionStart(partition) + manifest.getLoaded(partition);
+        partitionEnd  = manifest.getPartitionEnd(partition);
+
+        return true;
+    }
+
+    private long nextLoadIndex()
+    {
+        return partitionNext++;
+    }
+
+    /**
+     * Notes in the manifest that the keys handed out so far have been
+     * written, or if the request failed takes them back to be sent again.
+     */
+    private void loaded(boolean written)
+    {
+        final Manifest manifest = loader.getManifest();
+
+        if (written)
+        {
+            manifest.setLoaded(partition, partitionNext - manifest.getPartitionStart(partition));
+        }
+        else
+        {
+            partitionNext = manifest.getPartitionStart(partition) + manifest.getLoaded(partition);
+        }
+    }
+
+    /**
+     * Notes the first key of each request for the trace.
+     */
+    private String requestKey(String key)
+    {
+        if (requestKey == null)
+        {
+            requestKey = key;
+        }
+
+        return key;
+    }
+
+    /**
+     * The replayed request's key. The trace only has the first key of a
+     * batch, so the rest are made from its index the way the recording
+     * run made them, one agentCount apart; a first key that is not one of
+     * toKey()'s, as from a profile, gets a numbered suffix instead.
+     * Records without a key take this worker's next keys after insertBase.
+     */
+    private String replayKey()
+    {
+        if (replayed.key == null)
+        {
+            return KeyGenerator.toKey(insertBase + keyId + (long)workerCount * counter++);
+        }
+
+        if (requestKeys++ == 0)
+        {
+            replayIndex = KeyGenerator.toIndex(replayed.key);
+            return replayed.key;
+        }
+
+        if (replayIndex < 0)
+        {
+            return replayed.key + "." + (requestKeys - 1);
+        }
+
+        return KeyGenerator.toKey(replayIndex + (long)(requestKeys - 1) * agentCount);
+    }
+
+    /**
+     * Picks an existing key according to --key-distribution, out of the
+     * loaded key space. LATEST instead counts back from the newest key
+     * inserts have claimed so far. The key is picked once per request, so
+     * retries go to the same document as the first attempt.
+     */
     public String randomRequestKey()
     {
-        return getId() + "_" + rng.nextInt(session.getRequestCount() / session.getThreadCount());
+        if (replay != null)
+        {
+            return replayKey();
+        }
+
+        if (randomKey == null)
+        {
+            randomKey = KeyGenerator.toKey(keyGenerator.nextIndex(keyGenerator instanceof KeyGenerator.Latest ? latestKeyCount() : keyCount));
+        }
+
+        return requestKey(randomKey);
     }
 
-    public int getId()
+    /**
+     * Keys up to the newest one inserts have claimed so far.
+     */
+    private long latestKeyCount()
     {
-        return id;
+        return Math.max(keyCount, insertBase + session.getInsertCount() * agentCount);
     }
 
-    public int currentRequestId()
+    /**
+     * Requests the current perform() makes: the task's request size, except
+     * for a last request cut down to what is left of --num-keys.
+     */
+    public int getRequestSize()
     {
-        return counter;
+        return requestSize;
+    }
+
+    public int getId()
+    {
+        return id;
     }
 
     public Mongo getConnection()
@@ -106,9 +608,13 @@ public class StressWorker
         return connection;
     }
 
+    /**
+     * The collection the current operation should use: on a secondary for
+     * reads with --read-preference SECONDARY.
+     */
     public DBCollection getCollection()
     {
-        return coll;
+        return opColl != null ? opColl : coll;
     }
 
     public boolean isRunning()
@@ -116,6 +622,15 @@ public class StressWorker
         return thread.isAlive();
     }
 
+    /**
+     * What the worker died of, if it stopped on anything other than a
+     * failed request.
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
     public void start()
     {
         thread.start();
@@ -131,6 +646,4 @@ public class StressWorker
         {
         }
     }
-} 
-
-
+}
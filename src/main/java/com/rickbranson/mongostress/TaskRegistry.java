@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+
+/**
+ * Maps the operation names accepted by --operation and --workload to the
+ * tasks that implement them.
+ */
+public class TaskRegistry
+{
+    private static final Map<String, StressTask.Factory> factories = new LinkedHashMap<String, StressTask.Factory>();
+
+    static
+    {
+        register("INSERT",       InsertTask.FACTORY);
+        register("READ",         GetTask.FACTORY);
+        register("UPDATE",       UpdateTask.FACTORY);
+        register("INCREMENT",    IncrementTask.FACTORY);
+        register("PUSH",         PushTask.FACTORY);
+        register("UPSERT",       UpsertTask.FACTORY);
+        register("QUERY_EQ",     QueryTask.EQUALITY_FACTORY);
+        register("QUERY_RANGE",  QueryTask.RANGE_FACTORY);
+        register("QUERY_SORTED", QueryTask.SORTED_FACTORY);
+        register(GridFsTask.PUT, GridFsTask.PUT_FACTORY);
+        register(GridFsTask.GET, GridFsTask.GET_FACTORY);
+    }
+
+    public static synchronized void register(String name, StressTask.Factory factory)
+    {
+        factories.put(name.toUpperCase(), factory);
+    }
+
+    public static synchronized StressTask.Factory lookup(String name)
+    {
+        StressTask.Factory factory = factories.get(name.toUpperCase());
+
+        if (factory == null)
+        {
+            throw new IllegalArgumentException("Unknown operation provided: " + name);
+        }
+
+        return factory;
+    }
+
+    public static synchronized Set<String> getNames()
+    {
+        return Collections.unmodifiableSet(factories.keySet());
+    }
+}
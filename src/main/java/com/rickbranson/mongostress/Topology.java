@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+
+import com.mongodb.*;
+
+/**
+ * Decides which servers each worker talks to, and hands out the clients
+ * for them. A single server or replica set gets one client per worker, or
+ * one shared client. --mongos routers are dealt out to workers
+ * round-robin. With --read-preference SECONDARY each worker also reads
+ * from one secondary, again dealt out round-robin, through a client of its
+ * own; pinning workers to servers is what lets the runner report each
+ * server's share of the load.
+ */
+public class Topology
+{
+    private final Session session;
+    private final List<String> nodeNames = new ArrayList<String>();
+    private final List<Endpoint> writeEndpoints = new ArrayList<Endpoint>();
+    private final List<Endpoint> readEndpoints = new ArrayList<Endpoint>();
+    private final Map<Endpoint, Mongo> sharedConnections = new HashMap<Endpoint, Mongo>();
+
+    /**
+     * Some servers a worker can send requests to, and which node of the
+     * deployment handles them.
+     */
+    public static final class Endpoint
+    {
+        final List<ServerAddress> addresses;
+        final int node;
+        final boolean slaveOk;
+        final boolean primary;
+
+        Endpoint(List<ServerAddress> addresses, int node, boolean slaveOk, boolean primary)
+        {
+            this.addresses  = addresses;
+            this.node       = node;
+            this.slaveOk    = slaveOk;
+            this.primary    = primary;
+        }
+
+        public int getNode()
+        {
+            return node;
+        }
+    }
+
+    public Topology(Session session)
+    {
+        this.session = session;
+
+        if (session.isMongosRouting())
+        {
+            for (ServerAddress router : session.getHosts())
+            {
+                writeEndpoints.add(new Endpoint(Collections.singletonList(router), addNode(router.toString()), false, false));
+            }
+
+            readEndpoints.addAll(writeEndpoints);
+        }
+        else if (session.getReplicaSetName() != null)
+        {
+            discoverReplicaSet();
+        }
+        else
+        {
+            writeEndpoints.add(new Endpoint(session.getDeploymentAddresses(), addNode(session.getHosts().get(0).toString()), false, false));
+            readEndpoints.addAll(writeEndpoints);
+        }
+    }
+
+    private int addNode(String name)
+    {
+        int node = nodeNames.indexOf(name);
+
+        if (node < 0)
+        {
+            nodeNames.add(name);
+            node = nodeNames.size() - 1;
+        }
+
+        return node;
+    }
+
+    /**
+     * Asks the seeds for the members of the replica set, each of which is
+     * a node. Writes go to the primary, which the driver follows through a
+     * failover, and reads to it or to every secondary.
+     */
+    private void discoverReplicaSet()
+    {
+        DBObject status = null;
+
+        for (ServerAddress seed : session.getHosts())
+        {
+            Mongo m = session.connect(Collections.singletonList(seed), false, true);
+
+            try
+            {
+                status = m.getDB("admin").command("ismaster");
+                break;
+            }
+            catch (MongoException ex)
+            {
+                System.err.println("Unable to reach seed " + seed + ": " + ex.getMessage());
+            }
+            finally
+            {
+                m.close();
+            }
+        }
+
+        if (status == null || !session.getReplicaSetName().equals(status.get("setName")))
+        {
+            throw new IllegalArgumentException("The --hosts are not members of replica set " + session.getReplicaSetName());
+        }
+
+        String primary = (String) status.get("primary");
+
+        if (primary == null)
+        {
+            throw new IllegalArgumentException("Replica set " + session.getReplicaSetName() + " has no primary");
+        }
+
+        writeEndpoints.add(new Endpoint(session.getDeploymentAddresses(), addNode(primary), false, true));
+
+        // Every member is a node from the start, so writes that follow a
+        // failover are reported against the new primary.
+        for (String member : members(status))
+        {
+            addNode(member);
+        }
+
+        if (!session.isSecondaryReads())
+        {
+            readEndpoints.addAll(writeEndpoints);
+            return;
+        }
+
+        for (String member : members(status))
+        {
+            if (!member.equals(primary))
+            {
+                try
+                {
+                    readEndpoints.add(new Endpoint(Collections.singletonList(new ServerAddress(member)), addNode(member), true, false));
+                }
+                catch (java.net.UnknownHostException ex)
+                {
+                    throw new IllegalArgumentException("Unknown replica set member: " + member);
+                }
+            }
+        }
+
+        if (readEndpoints.isEmpty())
+        {
+            throw new IllegalArgumentException("Replica set " + session.getReplicaSetName() + " has no secondaries to read from");
+        }
+    }
+
+    private static List<String> members(DBObject status)
+    {
+        List<String> members = new ArrayList<String>();
+
+        for (String field : new String[] { "hosts", "passives" })
+        {
+            if (status.get(field) instanceof List)
+            {
+                for (Object member : (List<?>) status.get(field))
+                {
+                    members.add(member.toString());
+                }
+            }
+        }
+
+        return members;
+    }
+
+    /**
+     * host:port of every server requests are reported against, by node.
+     */
+    public List<String> getNodeNames()
+    {
+        return Collections.unmodifiableList(nodeNames);
+    }
+
+    public Endpoint getWriteEndpoint(int workerId)
+    {
+        return writeEndpoints.get(workerId % writeEndpoints.size());
+    }
+
+    public Endpoint getReadEndpoint(int workerId)
+    {
+        return readEndpoints.get(workerId % readEndpoints.size());
+    }
+
+    /**
+     * The node a replica set's client sends writes to now, which after a
+     * failover is no longer the primary found at start up. Other endpoints,
+     * and a new primary that was not a member at start up, stay on node.
+     */
+    public int getPrimaryNode(Endpoint endpoint, Mongo m, int node)
+    {
+        ServerAddress address = endpoint.primary ? m.getAddress() : null;
+        int primary = address != null ? nodeNames.indexOf(address.toString()) : -1;
+
+        return primary >= 0 ? primary : node;
+    }
+
+    /**
+     * The shared client for an endpoint with --shared-client, otherwise a
+     * new client that the caller must close.
+     */
+    public synchronized Mongo connect(Endpoint endpoint)
+    {
+        if (!session.isSharedClient())
+        {
+            return session.connect(endpoint.addresses, false, endpoint.slaveOk);
+        }
+
+        Mongo m = sharedConnections.get(endpoint);
+
+        if (m == null)
+        {
+            m = session.connect(endpoint.addresses, true, endpoint.slaveOk);
+            sharedConnections.put(endpoint, m);
+        }
+
+        return m;
+    }
+
+    /**
+     * Closes the shared clients.
+     */
+    public synchronized void close()
+    {
+        for (Mongo m : sharedConnections.values())
+        {
+            m.close();
+        }
+
+        sharedConnections.clear();
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A binary log of requests that --record writes and --replay re-issues.
+ * The file starts with a magic string and the names of its operations,
+ * followed by one record per request:
+ *
+ *   byte   operation index + 1 (0 marks the end of the log)
+ *   long   intended start, in nanoseconds since the first request
+ *   long   latency in nanoseconds
+ *   int    documents written or read
+ *   int    approximate bytes of those documents
+ *   short  key length, then the key in UTF-8 ("" when there is none)
+ *
+ * The file is written through memory-mapped segments. Workers reserve the
+ * space for a record with a single atomic add and copy it in, so recording
+ * costs no locks and no system calls on the request path.
+ *
+ * A record is appended when its request completes, so the file is in
+ * completion order: a slow request comes after faster ones issued later,
+ * and starts are not sorted. Replay issues records in file order, each no
+ * earlier than its start, so a request may be replayed up to its recorded
+ * latency after where it was first issued.
+ */
+public class TraceLog
+{
+    private static final byte[] MAGIC = "MSTRACE1".getBytes(Charset.forName("US-ASCII"));
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 1 + 8 + 8 + 4 + 4 + 2;
+
+    public static class Record
+    {
+        public int op;
+        public long start;
+        public long latency;
+        public int documents;
+        public int bytes;
+        public String key;
+    }
+
+    /**
+     * The segments of a file, mapped as they are first touched.
+     */
+    private static class Segments
+    {
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private volatile MappedByteBuffer[] mapped = new MappedByteBuffer[0];
+
+        Segments(FileChannel channel, FileChannel.MapMode mode)
+        {
+            this.channel  = channel;
+            this.mode     = mode;
+        }
+
+        MappedByteBuffer get(int index) throws IOException
+        {
+            MappedByteBuffer[] current = mapped;
+
+            if (index < current.length)
+            {
+                return current[index];
+            }
+
+            synchronized (this)
+            {
+                while (mapped.length <= index)
+                {
+                    MappedByteBuffer[] grown = Arrays.copyOf(mapped, mapped.length + 1);
+                    long offset = mapped.length * SEGMENT_SIZE;
+                    long size   = mode == FileChannel.MapMode.READ_ONLY ? Math.min(SEGMENT_SIZE, channel.size() - offset) : SEGMENT_SIZE;
+
+                    grown[mapped.length] = channel.map(mode, offset, size);
+                    mapped = grown;
+                }
+
+                return mapped[index];
+            }
+        }
+
+        /**
+         * Copies length bytes between the file at position and buffer,
+         * splitting the copy where it crosses into the next segment.
+         */
+        void copy(long position, byte[] buffer, int length, boolean write) throws IOException
+        {
+            int done = 0;
+
+            while (done < length)
+            {
+                ByteBuffer segment  = get((int)(position / SEGMENT_SIZE)).duplicate();
+                int offset          = (int)(position % SEGMENT_SIZE);
+                int count           = (int)Math.min(length - done, SEGMENT_SIZE - offset);
+
+                segment.position(offset);
+
+                if (write)
+                {
+                    segment.put(buffer, done, count);
+                }
+                else
+                {
+                    segment.get(buffer, done, count);
+                }
+
+                done      += count;
+                position  += count;
+            }
+        }
+
+        void force()
+        {
+            for (MappedByteBuffer segment : mapped)
+            {
+                segment.force();
+            }
+        }
+    }
+
+    public static class Writer
+    {
+        private final RandomAccessFile file;
+        private final Segments segments;
+        private final AtomicLong next;
+        private volatile long startTime = 0;
+
+        public Writer(String path, List<String> operations) throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream header     = new DataOutputStream(bytes);
+
+            header.write(MAGIC);
+            header.writeInt(operations.size());
+
+            for (String operation : operations)
+            {
+                header.writeUTF(operation);
+            }
+
+            file      = new RandomAccessFile(path, "rw");
+            file.setLength(0);
+            segments  = new Segments(file.getChannel(), FileChannel.MapMode.READ_WRITE);
+            next      = new AtomicLong(bytes.size());
+
+            segments.copy(0, bytes.toByteArray(), bytes.size(), true);
+        }
+
+        /**
+         * Start times are recorded relative to the first request's, given
+         * as System.nanoTime().
+         */
+        private long relativeStart(long startNanos)
+        {
+            if (startTime == 0)
+            {
+                synchronized (this)
+                {
+                    if (startTime == 0)
+                    {
+                        startTime = startNanos;
+                    }
+                }
+            }
+
+            return Math.max(0, startNanos - startTime);
+        }
+
+        public Appender newAppender()
+        {
+            return new Appender(this);
+        }
+
+        /**
+         * Trims the unused end of the last segment. Must only be called once
+         * every appender is done.
+         */
+        public void close() throws IOException
+        {
+            segments.force();
+            file.getChannel().truncate(next.get());
+            file.close();
+        }
+    }
+
+    /**
+     * Appends records for one worker, reusing its encoding buffers so that
+     * recording allocates nothing.
+     */
+    public static class Appender
+    {
+        private final Writer writer;
+        private final CharsetEncoder encoder = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+        private char[] keyChars = new char[64];
+        private CharBuffer keyBuffer = CharBuffer.wrap(keyChars);
+
+        private Appender(Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        public void append(int op, long startNanos, long latencyNanos, int documents, int bytes, String key)
+        {
+            final int keyLength = key != null ? key.length() : 0;
+
+            // UTF-8 takes at most three bytes per UTF-16 char.
+            if (buffer.capacity() < RECORD_HEADER_SIZE + keyLength * 3)
+            {
+                buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyLength * 3);
+            }
+
+            if (keyChars.length < keyLength)
+            {
+                keyChars  = new char[keyLength];
+                keyBuffer = CharBuffer.wrap(keyChars);
+            }
+
+            buffer.clear();
+            buffer.put((byte)(op + 1));
+            buffer.putLong(writer.relativeStart(startNanos));
+            buffer.putLong(latencyNanos);
+            buffer.putInt(documents);
+            buffer.putInt(bytes);
+            buffer.position(RECORD_HEADER_SIZE);
+
+            if (key != null)
+            {
+                key.getChars(0, keyLength, keyChars, 0);
+                keyBuffer.clear().limit(keyLength);
+                encoder.reset();
+                encoder.encode(keyBuffer, buffer, true);
+                encoder.flush(buffer);
+            }
+
+            final int length = buffer.position();
+
+            buffer.putShort(RECORD_HEADER_SIZE - 2, (short)(length - RECORD_HEADER_SIZE));
+
+            try
+            {
+                writer.segments.copy(writer.next.getAndAdd(length), buffer.array(), length, true);
+            }
+            catch (IOException ex)
+            {
+                throw new RuntimeException("Unable to write trace", ex);
+            }
+        }
+    }
+
+    /**
+     * Hands the records of a trace out to the workers in order, and paces
+     * them so each request starts at its recorded time divided by speed,
+     * or straight away when speed is 0.
+     */
+    public static class Reader
+    {
+        private final RandomAccessFile file;
+        private final Segments segments;
+        private final List<String> operations = new ArrayList<String>();
+        private final long length;
+        private final double speed;
+        private final byte[] header = new byte[RECORD_HEADER_SIZE];
+        private final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        private long position;
+        private long startTime = 0;
+
+        public Reader(String path, double speed) throws IOException
+        {
+            file      = new RandomAccessFile(path, "r");
+            length    = file.length();
+            segments  = new Segments(file.getChannel(), FileChannel.MapMode.READ_ONLY);
+
+            this.speed = speed;
+
+            byte[] magic = new byte[MAGIC.length];
+            file.readFully(magic);
+
+            if (!Arrays.equals(magic, MAGIC))
+            {
+                file.close();
+                throw new IOException("Not a trace file: " + path);
+            }
+
+            int count = file.readInt();
+
+            for (int i = 0; i < count; i++)
+            {
+                operations.add(file.readUTF());
+            }
+
+            position = file.getFilePointer();
+        }
+
+        public List<String> getOperations()
+        {
+            return Collections.unmodifiableList(operations);
+        }
+
+        /**
+         * Reads the next record into record, returning false once the trace
+         * is exhausted.
+         */
+        public synchronized boolean next(Record record)
+        {
+            if (startTime == 0)
+            {
+                startTime = System.nanoTime();
+            }
+
+            try
+            {
+                if (position + RECORD_HEADER_SIZE > length)
+                {
+                    return false;
+                }
+
+                segments.copy(position, header, RECORD_HEADER_SIZE, false);
+                headerBuffer.clear();
+
+                final int op = headerBuffer.get() - 1;
+
+                if (op < 0)
+                {
+                    return false;
+                }
+
+                record.op         = op;
+                record.start      = headerBuffer.getLong();
+                record.latency    = headerBuffer.getLong();
+                record.documents  = headerBuffer.getInt();
+                record.bytes      = headerBuffer.getInt();
+
+                final byte[] key  = new byte[headerBuffer.getShort()];
+
+                segments.copy(position + RECORD_HEADER_SIZE, key, key.length, false);
+                record.key = key.length > 0 ? new String(key, UTF8) : null;
+                position  += RECORD_HEADER_SIZE + key.length;
+
+                return true;
+            }
+            catch (IOException ex)
+            {
+                throw new RuntimeException("Unable to read trace", ex);
+            }
+        }
+
+        /**
+         * Returns the time the record should be issued at and parks the
+         * calling thread until then.
+         */
+        public long awaitStartTime(Record record)
+        {
+            if (speed <= 0)
+            {
+                return System.nanoTime();
+            }
+
+            final long intended = startTime + (long)(record.start / speed);
+            long remaining;
+
+            while ((remaining = intended - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(remaining);
+            }
+
+            return intended;
+        }
+
+        public void close() throws IOException
+        {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.mongodb.*;
+
+/**
+ * Overwrites one randomly chosen value of an existing document with $set.
+ * With --update-growth the new value is a string longer than any the
+ * document was inserted with.
+ */
+public class UpdateTask implements StressTask
+{
+    public static final StressTask.Factory FACTORY = new StressTask.Factory()
+    {
+        public void prepare(Session session)
+        {
+            UpdateTask.prepare(session);
+        }
+
+        public StressTask create(Session session)
+        {
+            return new UpdateTask(session);
+        }
+    };
+
+    private final PayloadGenerator payload;
+    private final String[] growthValues;
+    private final BasicDBObject query   = new BasicDBObject();
+    private final BasicDBObject fields  = new BasicDBObject();
+    private final BasicDBObject update  = new BasicDBObject("$set", fields);
+
+    public UpdateTask(Session session)
+    {
+        this.payload      = session.getPayloadGenerator();
+        this.growthValues = session.getGrowthValues();
+    }
+
+    public static void prepare(Session session)
+    {
+    }
+
+    public int perform(StressWorker context)
+    {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        int leaf = rng.nextInt(payload.getLeafCount());
+
+        query.put("_id", context.randomRequestKey());
+        fields.clear();
+        fields.put(payload.getLeafPath(leaf), growthValues != null ? growthValues[rng.nextInt(growthValues.length)] : payload.nextLeafValue(leaf));
+
+        WriteResult result = context.getCollection().update(query, update);
+        context.addBytes(PayloadGenerator.bsonSize(update));
+        return StressWorker.matchedDocuments(result);
+    }
+
+    public int getRequestSize()
+    {
+        return 1;
+    }
+
+    public boolean isRead()
+    {
+        return false;
+    }
+}
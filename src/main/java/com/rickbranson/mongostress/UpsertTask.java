@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import com.mongodb.*;
+
+/**
+ * Writes a whole new document over a key picked by --key-distribution,
+ * inserting it if the key does not exist yet.
+ */
+public class UpsertTask implements StressTask
+{
+    public static final StressTask.Factory FACTORY = new StressTask.Factory()
+    {
+        public void prepare(Session session)
+        {
+        }
+
+        public StressTask create(Session session)
+        {
+            return new UpsertTask(session);
+        }
+    };
+
+    private final PayloadGenerator payload;
+    private final BasicDBObject query   = new BasicDBObject();
+    private final BasicDBObject document;
+
+    public UpsertTask(Session session)
+    {
+        this.payload  = session.getPayloadGenerator();
+        this.document = payload.newDocument();
+    }
+
+    public int perform(StressWorker context)
+    {
+        query.put("_id", context.randomRequestKey());
+        payload.fill(document);
+
+        WriteResult result = context.getCollection().update(query, document, true, false);
+        context.addBytes(PayloadGenerator.bsonSize(document));
+        return StressWorker.matchedDocuments(result);
+    }
+
+    public int getRequestSize()
+    {
+        return 1;
+    }
+
+    public boolean isRead()
+    {
+        return false;
+    }
+}
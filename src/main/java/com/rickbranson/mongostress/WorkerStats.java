@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.HdrHistogram.AtomicHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.WriterReaderPhaser;
+
+/**
+ * Per-operation latency histograms and byte counters written by one or
+ * more workers and drained by the status thread. Normally every worker has
+ * its own; with --concurrency, workers share a fixed number of these so
+ * memory does not grow with the number of in-flight requests.
+ *
+ * Everything a request records lands in the same interval: the status
+ * thread swaps all of it at once, so an interval's request, document and
+ * byte counts always describe the same requests.
+ */
+public class WorkerStats
+{
+    // Histogram series kept for every workload operation, in microseconds.
+    // LATENCY is measured from the intended start time when running against
+    // an arrival schedule. SERVICE_TIME leaves out the time queued behind
+    // the schedule, and is only recorded when there is one. DOC_LATENCY is
+    // amortised over the documents each request wrote or read, weighted by
+    // the document count, so its count is the number of documents. POOL_WAIT
+    // is the time spent checking a connection out of a shared client's
+    // pool, and is part of LATENCY.
+    public static final int LATENCY       = 0;
+    public static final int SERVICE_TIME  = 1;
+    public static final int DOC_LATENCY   = 2;
+    public static final int POOL_WAIT     = 3;
+    public static final int SERIES_COUNT  = 4;
+
+    // Counters sit 128 bytes apart, and away from the ends of the array, so
+    // no two of them (or any other WorkerStats') share a cache line.
+    private static final int COUNTER_STRIDE = 16;
+
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+    private volatile Interval active;
+    private Interval inactive;
+
+    /**
+     * What the workers record between two swaps.
+     */
+    private static class Interval
+    {
+        final Histogram[][] histograms;
+        final AtomicLongArray bytes;
+
+        Interval(int operationCount, int seriesCount)
+        {
+            histograms = new Histogram[SERIES_COUNT][operationCount];
+            bytes      = new AtomicLongArray((operationCount + 2) * COUNTER_STRIDE);
+
+            for (int series = 0; series < SERIES_COUNT; series++)
+            {
+                for (int op = 0; op < operationCount; op++)
+                {
+                    if (series == LATENCY || op < seriesCount)
+                    {
+                        histograms[series][op] = new AtomicHistogram(Session.MAX_LATENCY_MICROSECONDS, Session.LATENCY_SIGNIFICANT_DIGITS);
+                    }
+                }
+            }
+        }
+
+        void reset()
+        {
+            for (Histogram[] series : histograms)
+            {
+                for (Histogram histogram : series)
+                {
+                    if (histogram != null)
+                    {
+                        histogram.reset();
+                    }
+                }
+            }
+
+            for (int i = 0; i < bytes.length(); i++)
+            {
+                bytes.set(i, 0);
+            }
+        }
+    }
+
+    public WorkerStats(int operationCount)
+    {
+        this(operationCount, operationCount);
+    }
+
+    /**
+     * Only the first seriesCount operations keep every series; the rest,
+     * the outcome slots, only ever record LATENCY and keep only that, as
+     * there are several of them for every operation.
+     */
+    public WorkerStats(int operationCount, int seriesCount)
+    {
+        active   = new Interval(operationCount, seriesCount);
+        inactive = new Interval(operationCount, seriesCount);
+    }
+
+    private static int counterIndex(int op)
+    {
+        return (op + 1) * COUNTER_STRIDE;
+    }
+
+    private static long toRecordableMicros(long nanos)
+    {
+        return Math.min(nanos / 1000, Session.MAX_LATENCY_MICROSECONDS);
+    }
+
+    public void record(int series, int op, long nanos)
+    {
+        final long phase = phaser.writerCriticalSectionEnter();
+
+        try
+        {
+            active.histograms[series][op].recordValue(toRecordableMicros(nanos));
+        }
+        finally
+        {
+            phaser.writerCriticalSectionExit(phase);
+        }
+    }
+
+    public void recordRequest(int op, int docs, long latencyInNanos)
+    {
+        recordRequest(op, docs, 0, latencyInNanos);
+    }
+
+    /**
+     * Records the latency of a request that wrote or read docs documents
+     * totalling bytes, and its amortised per-document latency.
+     */
+    public void recordRequest(int op, int docs, long bytes, long latencyInNanos)
+    {
+        final long phase = phaser.writerCriticalSectionEnter();
+
+        try
+        {
+            final Interval interval = active;
+
+            interval.histograms[LATENCY][op].recordValue(toRecordableMicros(latencyInNanos));
+
+            if (docs > 0)
+            {
+                interval.histograms[DOC_LATENCY][op].recordValueWithCount(toRecordableMicros(latencyInNanos / docs), docs);
+            }
+
+            if (bytes > 0)
+            {
+                interval.bytes.addAndGet(counterIndex(op), bytes);
+            }
+        }
+        finally
+        {
+            phaser.writerCriticalSectionExit(phase);
+        }
+    }
+
+    /**
+     * Ends the interval being recorded and starts the next one. What was
+     * recorded stays readable through getIntervalHistogram() and
+     * getIntervalBytes() until the next swap. Only the status thread swaps.
+     */
+    public void swap()
+    {
+        phaser.readerLock();
+
+        try
+        {
+            final Interval retired = active;
+
+            inactive.reset();
+            active   = inactive;
+            inactive = retired;
+            phaser.flipPhase();
+        }
+        finally
+        {
+            phaser.readerUnlock();
+        }
+    }
+
+    /**
+     * The given series of the given workload operation as of the last swap,
+     * or null for a series the operation does not keep.
+     */
+    public Histogram getIntervalHistogram(int series, int op)
+    {
+        return inactive.histograms[series][op];
+    }
+
+    /**
+     * Bytes of the documents written or read by the given workload operation
+     * in the interval ended by the last swap; the documents themselves are
+     * the count of its DOC_LATENCY histogram.
+     */
+    public long getIntervalBytes(int op)
+    {
+        return inactive.bytes.get(counterIndex(op));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the threads that run StressWorkers. Lightweight threads are
+ * virtual threads when the JVM has them (Java 21 and later), so tens of
+ * thousands of blocked requests cost a few KB each instead of an OS
+ * thread. Older JVMs fall back to platform threads with a small stack.
+ *
+ * The 2.7 driver reads and writes its sockets inside synchronized methods
+ * (DBPort.go), and before Java 24 a virtual thread blocked there pins its
+ * carrier. Every request on the wire therefore holds a carrier, so the
+ * carrier pool is sized to the client's connections rather than the CPUs.
+ */
+public class WorkerThreadFactory
+{
+    private static final long SMALL_STACK_SIZE = 256 * 1024;
+    private static final String CARRIER_PARALLELISM = "jdk.virtualThreadScheduler.parallelism";
+    private static final String CARRIER_MAX_POOL_SIZE = "jdk.virtualThreadScheduler.maxPoolSize";
+
+    private final boolean lightweight;
+    private final Object virtualBuilder;
+    private final Method unstarted;
+
+    /**
+     * Lightweight threads get enough carriers for the given number of
+     * connections, unless the carrier pool was sized on the command line.
+     * The scheduler reads these properties when the first virtual thread
+     * starts, so this must run before any does.
+     */
+    public WorkerThreadFactory(boolean lightweight, int connections)
+    {
+        Object builder  = null;
+        Method method   = null;
+
+        if (lightweight)
+        {
+            if (System.getProperty(CARRIER_PARALLELISM) == null)
+            {
+                int carriers = Math.max(connections, Runtime.getRuntime().availableProcessors());
+
+                System.setProperty(CARRIER_PARALLELISM, Integer.toString(carriers));
+
+                if (System.getProperty(CARRIER_MAX_POOL_SIZE) == null)
+                {
+                    System.setProperty(CARRIER_MAX_POOL_SIZE, Integer.toString(Math.max(carriers, 256)));
+                }
+            }
+
+            try
+            {
+                builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                method  = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            }
+            catch (Exception ex)
+            {
+                // Not available, or a preview feature that is not enabled
+                builder = null;
+                method  = null;
+            }
+        }
+
+        this.lightweight    = lightweight;
+        this.virtualBuilder = builder;
+        this.unstarted      = method;
+    }
+
+    public boolean isVirtual()
+    {
+        return virtualBuilder != null;
+    }
+
+    public Thread newThread(Runnable runnable, String name)
+    {
+        Thread thread;
+
+        if (virtualBuilder != null)
+        {
+            try
+            {
+                thread = (Thread)unstarted.invoke(virtualBuilder, runnable);
+            }
+            catch (Exception ex)
+            {
+                throw new RuntimeException("Unable to create virtual thread", ex);
+            }
+        }
+        else if (lightweight)
+        {
+            thread = new Thread(null, runnable, name, SMALL_STACK_SIZE);
+        }
+        else
+        {
+            thread = new Thread(runnable);
+        }
+
+        thread.setName(name);
+
+        return thread;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A weighted mix of operations. Each request picks its operation at random
+ * in proportion to the weights, e.g. "READ=70,UPDATE=20,INSERT=10".
+ */
+public class Workload
+{
+    private final String[] names;
+    private final StressTask.Factory[] factories;
+    private final int[] cumulativeWeights;
+
+    private Workload(Map<String, Integer> weights)
+    {
+        if (weights.isEmpty())
+        {
+            throw new IllegalArgumentException("Workload has no operations");
+        }
+
+        names             = new String[weights.size()];
+        factories         = new StressTask.Factory[weights.size()];
+        cumulativeWeights = new int[weights.size()];
+
+        int i     = 0;
+        int total = 0;
+
+        for (Map.Entry<String, Integer> entry : weights.entrySet())
+        {
+            if (entry.getValue() <= 0)
+            {
+                throw new IllegalArgumentException("Operation weight must be positive: " + entry.getKey());
+            }
+
+            total += entry.getValue();
+
+            names[i]              = entry.getKey().toUpperCase();
+            factories[i]          = TaskRegistry.lookup(entry.getKey());
+            cumulativeWeights[i]  = total;
+            i++;
+        }
+    }
+
+    public static Workload single(String operation)
+    {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        weights.put(operation, 1);
+        return new Workload(weights);
+    }
+
+    /**
+     * The operations of a replayed trace, in the trace's order. The trace
+     * picks the operations, so the weights are never used.
+     */
+    public static Workload of(List<String> operations)
+    {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+
+        for (String operation : operations)
+        {
+            weights.put(operation, 1);
+        }
+
+        return new Workload(weights);
+    }
+
+    /**
+     * Parses "OP=weight" pairs separated by commas.
+     */
+    public static Workload parse(String spec)
+    {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+
+        for (String pair : spec.split(","))
+        {
+            String[] parts = pair.split("=");
+
+            if (parts.length != 2)
+            {
+                throw new IllegalArgumentException("Bad workload entry: " + pair);
+            }
+
+            weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+
+        return new Workload(weights);
+    }
+
+    /**
+     * Loads a properties file with one "OP=weight" line per operation.
+     */
+    public static Workload load(String path) throws IOException
+    {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(path);
+
+        try
+        {
+            props.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+
+        for (String name : new TreeSet<String>(props.stringPropertyNames()))
+        {
+            weights.put(name, Integer.parseInt(props.getProperty(name).trim()));
+        }
+
+        return new Workload(weights);
+    }
+
+    public int size()
+    {
+        return names.length;
+    }
+
+    public String getName(int index)
+    {
+        return names[index];
+    }
+
+    public StressTask.Factory getFactory(int index)
+    {
+        return factories[index];
+    }
+
+    public int indexOf(String name)
+    {
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equalsIgnoreCase(name))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    public boolean contains(String name)
+    {
+        return indexOf(name) >= 0;
+    }
+
+    public int getTotalWeight()
+    {
+        return cumulativeWeights[cumulativeWeights.length - 1];
+    }
+
+    /**
+     * Maps a uniform value in [0, getTotalWeight()) to an operation index.
+     */
+    public int select(int roll)
+    {
+        for (int i = 0; i < cumulativeWeights.length - 1; i++)
+        {
+            if (roll < cumulativeWeights[i])
+            {
+                return i;
+            }
+        }
+
+        return cumulativeWeights.length - 1;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import junit.framework.TestCase;
+
+public class ArrivalScheduleTest extends TestCase
+{
+    private static final long MILLIS = 1000 * 1000;
+
+    public void testWorkersShareTheRate()
+    {
+        ArrivalSchedule schedule = new ArrivalSchedule(1000, 4, 0, false);
+        long first = schedule.awaitNextStartTime();
+
+        assertEquals(4 * MILLIS, schedule.awaitNextStartTime() - first);
+    }
+
+    public void testFewerActiveWorkersTakeLargerShares()
+    {
+        ArrivalSchedule schedule = new ArrivalSchedule(1000, 4, 0, false);
+
+        schedule.awaitNextStartTime();
+        schedule.setWorkers(2, 0);
+
+        long second = schedule.awaitNextStartTime();
+
+        assertEquals(2, schedule.getWorkerCount());
+        assertEquals(2 * MILLIS, schedule.awaitNextStartTime() - second);
+    }
+}
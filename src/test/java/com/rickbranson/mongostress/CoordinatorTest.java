@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Checks the coordinator's merged progress rows, both end to end with two
+ * in-process agents and against hand-built agent result queues.
+ */
+public class CoordinatorTest extends StressTestCase
+{
+    private static final Pattern TOTAL = Pattern.compile("\"op\"\\s*:\\s*\"ALL\".*\"total\"\\s*:\\s*(\\d+)");
+
+    public void testMergedTotalsOnlyGoUp() throws Exception
+    {
+        final File progress = File.createTempFile("coordinator", ".jsonl");
+        final int port      = freePort();
+        final String[] arguments = {
+            "--coordinator", "2", "--coordinator-port", Integer.toString(port),
+            "--hosts", server.getHostname() + ":" + server.getPort(),
+            "-o", "INSERT", "-n", "6000", "-t", "2", "-r", "2000", "-i", "1", "-w", "SAFE",
+            "--jsonl-file", progress.getPath()
+        };
+
+        try
+        {
+            List<Thread> threads = new ArrayList<Thread>();
+
+            threads.add(start(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        new Coordinator(new Session(arguments), arguments).run();
+                    }
+                    catch (Exception ex)
+                    {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }));
+
+            for (int i = 0; i < 2; i++)
+            {
+                threads.add(start(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            connectAgent(port);
+                        }
+                        catch (Exception ex)
+                        {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+                }));
+            }
+
+            for (Thread thread : threads)
+            {
+                thread.join(60 * 1000);
+                assertFalse("Cluster run did not finish", thread.isAlive());
+            }
+
+            List<Long> totals = allTotals(progress);
+
+            assertTrue("Too few intervals: " + totals, totals.size() >= 2);
+
+            for (int i = 1; i < totals.size(); i++)
+            {
+                assertTrue("Total went backwards: " + totals, totals.get(i) >= totals.get(i - 1));
+            }
+
+            assertEquals(6000L, (long)totals.get(totals.size() - 1));
+            assertEquals(6000, collection().count());
+        }
+        finally
+        {
+            progress.delete();
+        }
+    }
+
+    public void testLaggingAndFinishedAgentsKeepTheirTotals() throws Exception
+    {
+        // The first agent finishes after two intervals; the second is an
+        // interval behind, so its last one arrives on its own.
+        Coordinator.AgentResults first  = new Coordinator.AgentResults("first");
+        Coordinator.AgentResults second = new Coordinator.AgentResults("second");
+
+        first.messages.add(interval(1.0, 894, 894));
+        first.messages.add(interval(2.0, 4106, 5000));
+        first.messages.add(new Coordinator.Message(ClusterProtocol.SUMMARY, Collections.singletonList(row(5000, 5000, 2.0))));
+        second.messages.add(interval(1.0, 998, 998));
+        second.messages.add(interval(2.0, 3689, 4687));
+        second.messages.add(interval(3.0, 313, 5000));
+        second.messages.add(new Coordinator.Message(ClusterProtocol.SUMMARY, Collections.singletonList(row(5000, 5000, 3.0))));
+
+        final List<Long> totals    = new ArrayList<Long>();
+        final List<Long> counts    = new ArrayList<Long>();
+        final List<Long> summaries = new ArrayList<Long>();
+
+        ResultSink sink = new ResultSink()
+        {
+            public void interval(List<ResultRow> rows)
+            {
+                totals.add(rows.get(0).getTotalCount());
+                counts.add(rows.get(0).getCount());
+            }
+
+            public void summary(List<ResultRow> rows)
+            {
+                summaries.add(rows.get(0).getTotalCount());
+            }
+
+            public void close()
+            {
+            }
+        };
+
+        Coordinator.report(Arrays.asList(first, second), Collections.singletonList(sink), null, 1.0);
+
+        assertEquals(Arrays.asList(1892L, 9687L, 10000L), totals);
+        assertEquals(Arrays.asList(1892L, 7795L, 313L), counts);
+        assertEquals(Collections.singletonList(10000L), summaries);
+    }
+
+    public void testIntervalsAreMatchedByTick() throws Exception
+    {
+        // The second agent skipped the first tick, so its first interval
+        // belongs with the first agent's second.
+        Coordinator.AgentResults first  = new Coordinator.AgentResults("first");
+        Coordinator.AgentResults second = new Coordinator.AgentResults("second");
+
+        first.messages.add(interval(1.0, 100, 100));
+        first.messages.add(interval(2.0, 100, 200));
+        first.messages.add(new Coordinator.Message(ClusterProtocol.SUMMARY, Collections.singletonList(row(200, 200, 2.0))));
+        second.messages.add(interval(2.1, 300, 300));
+        second.messages.add(new Coordinator.Message(ClusterProtocol.SUMMARY, Collections.singletonList(row(300, 300, 2.1))));
+
+        final List<Long> counts = new ArrayList<Long>();
+
+        ResultSink sink = new ResultSink()
+        {
+            public void interval(List<ResultRow> rows)
+            {
+                counts.add(rows.get(0).getCount());
+            }
+
+            public void summary(List<ResultRow> rows)
+            {
+            }
+
+            public void close()
+            {
+            }
+        };
+
+        Coordinator.report(Arrays.asList(first, second), Collections.singletonList(sink), null, 1.0);
+
+        assertEquals(Arrays.asList(100L, 400L), counts);
+    }
+
+    private static Coordinator.Message interval(double elapsed, long count, long total)
+    {
+        return new Coordinator.Message(ClusterProtocol.INTERVAL, Collections.singletonList(row(count, total, elapsed)));
+    }
+
+    private static ResultRow row(long count, long total, double elapsed)
+    {
+        Histogram[] histograms = new Histogram[WorkerStats.SERIES_COUNT];
+
+        for (int series = 0; series < histograms.length; series++)
+        {
+            histograms[series] = LatencyStats.newHistogram();
+        }
+
+        return new ResultRow("", "ALL", count, count, 0, total, total, 0, 1.0, elapsed, histograms);
+    }
+
+    /**
+     * Connects as an agent, retrying until the coordinator is listening.
+     */
+    private static void connectAgent(int port) throws Exception
+    {
+        for (int attempt = 0; ; attempt++)
+        {
+            try
+            {
+                new Agent("127.0.0.1:" + port).run();
+                return;
+            }
+            catch (java.net.ConnectException ex)
+            {
+                if (attempt > 100)
+                {
+                    throw ex;
+                }
+
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static Thread start(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static int freePort() throws IOException
+    {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private static List<Long> allTotals(File progress) throws IOException
+    {
+        List<Long> totals = new ArrayList<Long>();
+        BufferedReader in = new BufferedReader(new FileReader(progress));
+
+        try
+        {
+            String line;
+
+            while ((line = in.readLine()) != null)
+            {
+                Matcher m = TOTAL.matcher(line);
+
+                if (m.find())
+                {
+                    totals.add(Long.parseLong(m.group(1)));
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return totals;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import com.mongodb.*;
+
+/**
+ * Talks to a FakeMongoServer through the driver, both directly and by
+ * running small stress sessions against it.
+ */
+public class FakeMongoServerTest extends StressTestCase
+{
+    public void testInsertUpdateFindRemove() throws Exception
+    {
+        DBCollection coll = mongo.getDB("test").getCollection("fake");
+
+        coll.insert(new BasicDBObject("_id", "a").append("n", 1), WriteConcern.SAFE);
+        coll.insert(new BasicDBObject("_id", "b").append("n", 5), WriteConcern.SAFE);
+        coll.update(new BasicDBObject("_id", "a"), new BasicDBObject("$inc", new BasicDBObject("n", 2)), false, false, WriteConcern.SAFE);
+
+        assertEquals(3, ((Number)coll.findOne(new BasicDBObject("_id", "a")).get("n")).intValue());
+        assertEquals(1, coll.count(new BasicDBObject("n", new BasicDBObject("$gt", 4))));
+
+        coll.remove(new BasicDBObject("_id", "b"), WriteConcern.SAFE);
+
+        assertNull(coll.findOne(new BasicDBObject("_id", "b")));
+        assertEquals(1, coll.count());
+    }
+
+    public void testInsertThenReadSession() throws Exception
+    {
+        run("-o", "INSERT", "-n", "1000", "-t", "4", "-w", "SAFE");
+
+        assertEquals(1000, mongo.getDB("test").getCollection(Session.COLLECTION_NAME).count());
+
+        run("-o", "READ", "-n", "1000", "-t", "4");
+
+        DBObject opcounters = (DBObject)mongo.getDB("admin").command("serverStatus").get("opcounters");
+
+        assertEquals(1000, ((Number)opcounters.get("insert")).longValue());
+        assertTrue(((Number)opcounters.get("query")).longValue() >= 1000);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+public class JvmMonitorTest extends TestCase
+{
+    private static final int CHUNKS = 64;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    public void testHeapAccountingSeesAllocation() throws Exception
+    {
+        // Virtual worker threads are not listed by the thread MBean, so
+        // their allocation is counted from the heap instead.
+        JvmMonitor monitor      = new JvmMonitor(true);
+        List<byte[]> retained   = new ArrayList<byte[]>();
+        long start              = System.nanoTime();
+
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            retained.add(new byte[CHUNK_SIZE]);
+        }
+
+        Thread.sleep(200);
+
+        double seconds  = (System.nanoTime() - start) / 1e9;
+        double mb       = monitor.sample()[JvmMonitor.ALLOCATION_RATE] * seconds;
+
+        assertEquals(CHUNKS, retained.size());
+        assertTrue("Only saw " + mb + " MB allocated", mb >= CHUNKS / 2);
+    }
+}
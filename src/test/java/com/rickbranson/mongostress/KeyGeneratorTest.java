@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the key distributions stay inside the key space and skew the way
+ * they are meant to.
+ */
+public class KeyGeneratorTest extends TestCase
+{
+    private static final int SAMPLES = 100000;
+
+    public void testZipfianFavorsTheFirstKeys()
+    {
+        KeyGenerator.Zipfian zipfian = new KeyGenerator.Zipfian(0.99);
+        long[] hits = new long[1000];
+
+        zipfian.prepare(hits.length);
+
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            hits[(int)zipfian.nextIndex(hits.length)]++;
+        }
+
+        assertTrue(hits[0] > hits[1]);
+        assertTrue(hits[1] > hits[hits.length - 1]);
+    }
+
+    public void testLatestFavorsTheNewestKeys()
+    {
+        KeyGenerator.Latest latest = new KeyGenerator.Latest(0.99);
+        long[] hits = new long[1000];
+
+        latest.prepare(hits.length);
+
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            hits[(int)latest.nextIndex(hits.length)]++;
+        }
+
+        assertTrue(hits[hits.length - 1] > hits[0]);
+    }
+
+    public void testZipfianFollowsAGrowingKeySpace()
+    {
+        KeyGenerator.Zipfian zipfian = new KeyGenerator.Zipfian(0.99);
+
+        zipfian.prepare(10);
+
+        for (long count = 10; count < 10000; count += 7)
+        {
+            long index = zipfian.nextIndex(count);
+
+            assertTrue(index >= 0 && index < count);
+        }
+    }
+
+    public void testKeysRoundTrip()
+    {
+        assertEquals(0, KeyGenerator.toIndex(KeyGenerator.toKey(0)));
+        assertEquals(123456789, KeyGenerator.toIndex(KeyGenerator.toKey(123456789)));
+        assertEquals(-1, KeyGenerator.toIndex("not a key"));
+    }
+}
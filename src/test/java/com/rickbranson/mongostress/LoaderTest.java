@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import com.mongodb.*;
+
+/**
+ * Loads through the partitioned --load path and checks what it leaves in
+ * the collection and in the manifest.
+ */
+public class LoaderTest extends StressTestCase
+{
+    public void testLoadWritesEveryKeyOnce() throws Exception
+    {
+        run("-o", "INSERT", "--load", "-n", "2000", "-b", "50", "-t", "4");
+
+        assertEquals(2000, collection().count());
+    }
+
+    public void testLoadWithDeadlineFinishes() throws Exception
+    {
+        // Most batches outlive a 1ms deadline; they must still count as
+        // loaded rather than be sent again forever.
+        run("-o", "INSERT", "--load", "-n", "2000", "-b", "50", "-t", "2", "--deadline", "1");
+
+        assertEquals(2000, collection().count());
+    }
+
+    public void testFinishedLoadIsNotRepeated() throws Exception
+    {
+        run("-o", "INSERT", "--load", "-n", "500", "-b", "10", "-t", "2");
+        run("-o", "INSERT", "--load", "-n", "500", "-b", "10", "-t", "2");
+
+        assertEquals(500, collection().count());
+    }
+
+    public void testInterruptedLoadResumesFromTheCheckpoints() throws Exception
+    {
+        Session session     = run("-o", "INSERT", "--load", "-n", "2000", "-b", "10", "-t", "2");
+        Manifest manifest   = Manifest.read(session);
+
+        // Roll every partition back to halfway, leaving one key past the
+        // checkpoint as a write that landed without being checkpointed.
+        for (int p = 0; p < manifest.getPartitionCount(); p++)
+        {
+            long start  = manifest.getPartitionStart(p);
+            long half   = (manifest.getPartitionEnd(p) - start) / 20 * 10;
+
+            manifest.setLoaded(p, half);
+            collection().remove(new BasicDBObject("_id", new BasicDBObject("$gte", KeyGenerator.toKey(start + half + 1)).append("$lt", KeyGenerator.toKey(manifest.getPartitionEnd(p)))), WriteConcern.SAFE);
+        }
+
+        manifest.write(session);
+
+        assertTrue(collection().count() < 2000);
+
+        run("-o", "INSERT", "--load", "-n", "2000", "-b", "10", "-t", "2");
+
+        assertEquals(2000, collection().count());
+        assertTrue(Manifest.read(session).isComplete());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class ManifestTest extends TestCase
+{
+    public void testPartitionsAreWholeBatchesCoveringEveryKey()
+    {
+        Manifest manifest = Manifest.create(10007, 3, 25);
+        long covered      = 0;
+
+        for (int p = 0; p < manifest.getPartitionCount(); p++)
+        {
+            long size = manifest.getPartitionEnd(p) - manifest.getPartitionStart(p);
+
+            assertEquals(covered, manifest.getPartitionStart(p));
+            assertTrue(p == manifest.getPartitionCount() - 1 || size % 25 == 0);
+
+            covered += size;
+        }
+
+        assertEquals(10007, covered);
+        assertFalse(manifest.isComplete());
+    }
+
+    public void testFileRoundTrip() throws Exception
+    {
+        File file = File.createTempFile("mongostress", ".manifest");
+
+        try
+        {
+            Session session     = new Session(new String[] { "--manifest", file.getPath() });
+            Manifest manifest   = Manifest.create(1000, 2, 10);
+
+            manifest.setLoaded(0, manifest.getPartitionEnd(0));
+            manifest.setLoaded(1, 20);
+            manifest.write(session);
+
+            Manifest read = Manifest.read(session);
+
+            assertEquals(1000, read.getKeys());
+            assertEquals(manifest.getPartitionCount(), read.getPartitionCount());
+            assertEquals(manifest.getLoadedKeys(), read.getLoadedKeys());
+            assertEquals(20, read.getLoaded(1));
+
+            Manifest.remove(session);
+
+            assertNull(Manifest.read(session));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import com.mongodb.MongoException;
+
+import junit.framework.TestCase;
+
+public class OutcomeTest extends TestCase
+{
+    public void testDuplicateKeysByCode()
+    {
+        assertEquals(Outcome.DUPLICATE_KEY, Outcome.classify(new MongoException(11000, "E11000 duplicate key error")));
+        assertEquals(Outcome.DUPLICATE_KEY, Outcome.classify(new MongoException(11001, "E11001 duplicate key on update")));
+    }
+
+    public void testTimeoutsAnywhereInTheCauses()
+    {
+        IOException wrapped = new IOException("read failed", new SocketTimeoutException("Read timed out"));
+
+        assertEquals(Outcome.TIMEOUT, Outcome.classify(new MongoException("timed out", new SocketTimeoutException("Read timed out"))));
+        assertEquals(Outcome.TIMEOUT, Outcome.classify(new MongoException("read failed", wrapped)));
+    }
+
+    public void testOtherIOFailuresAreNetworkErrors()
+    {
+        assertEquals(Outcome.NETWORK_ERROR, Outcome.classify(new MongoException("connection reset", new IOException("Connection reset"))));
+    }
+
+    public void testEverythingElseIsAServerError()
+    {
+        assertEquals(Outcome.SERVER_ERROR, Outcome.classify(new MongoException(10107, "not master")));
+        assertTrue(Outcome.isNotMaster(new MongoException(10107, "not master")));
+    }
+
+    public void testOnlyTransientFailuresAreRetried()
+    {
+        assertTrue(Outcome.isRetryable(Outcome.TIMEOUT));
+        assertTrue(Outcome.isRetryable(Outcome.NETWORK_ERROR));
+        assertFalse(Outcome.isRetryable(Outcome.DUPLICATE_KEY));
+        assertFalse(Outcome.isRetryable(Outcome.SERVER_ERROR));
+    }
+
+    public void testSlotsFollowTheOutcomeBase()
+    {
+        assertEquals(10, Outcome.slot(10, 0, Outcome.DUPLICATE_KEY));
+        assertEquals(10 + Outcome.COUNT - 1 + Outcome.RETRY - 1, Outcome.slot(10, 1, Outcome.RETRY));
+        assertEquals("READ:TIMEOUT", Outcome.slotName("READ", Outcome.TIMEOUT));
+    }
+}
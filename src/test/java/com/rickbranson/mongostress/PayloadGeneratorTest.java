@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+/**
+ * Compresses generated values with deflate and checks --compressibility
+ * gets the ratio it asks for.
+ */
+public class PayloadGeneratorTest extends TestCase
+{
+    private static final int VALUE_SIZE = 1000;
+    private static final int DOCUMENTS = 500;
+
+    public void testIncompressibleBinaryDoesNotCompress()
+    {
+        assertTrue(compressionRatio(PayloadGenerator.BINARY, 0) > 0.99);
+    }
+
+    public void testIncompressibleStringsOnlyLoseTheUnusedBit()
+    {
+        assertTrue(compressionRatio(PayloadGenerator.STRING, 0) > 0.85);
+    }
+
+    public void testCompressibilityIsTheShareSaved()
+    {
+        double ratio = compressionRatio(PayloadGenerator.BINARY, 50);
+
+        assertTrue("Compressed to " + ratio, ratio > 0.45 && ratio < 0.6);
+    }
+
+    /**
+     * Compressed size over raw size of the values of a run of documents.
+     */
+    private static double compressionRatio(String type, int compressibility)
+    {
+        PayloadGenerator payload    = new PayloadGenerator(1, 0, new String[] { type }, new SizeDistribution(SizeDistribution.UNIFORM, VALUE_SIZE, VALUE_SIZE, 0), compressibility, false);
+        ByteArrayOutputStream raw   = new ByteArrayOutputStream();
+
+        for (int i = 0; i < DOCUMENTS; i++)
+        {
+            Object value = payload.newDocument().get("0");
+            byte[] bytes = value instanceof byte[] ? (byte[])value : ((String)value).getBytes(Charset.forName("UTF-8"));
+
+            raw.write(bytes, 0, bytes.length);
+        }
+
+        Deflater deflater  = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] input       = raw.toByteArray();
+        byte[] output      = new byte[input.length * 2];
+
+        deflater.setInput(input);
+        deflater.finish();
+
+        int compressed = deflater.deflate(output);
+
+        deflater.end();
+
+        return (double)compressed / input.length;
+    }
+}
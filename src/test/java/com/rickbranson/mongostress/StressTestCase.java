@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import junit.framework.TestCase;
+
+import com.mongodb.*;
+
+/**
+ * Starts a FakeMongoServer for each test, with a client of its own, and
+ * runs stress sessions against it.
+ */
+public abstract class StressTestCase extends TestCase
+{
+    // Longest a session may run before the test counts it as hung.
+    private static final long RUN_TIMEOUT_MILLIS = 60 * 1000;
+
+    protected FakeMongoServer server;
+    protected Mongo mongo;
+
+    protected void setUp() throws Exception
+    {
+        server = FakeMongoServer.startLocal(0);
+        mongo  = new Mongo(server.getHostname(), server.getPort());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        mongo.close();
+        server.close();
+    }
+
+    /**
+     * Runs a session with the given options against the server, failing
+     * if it has not finished within RUN_TIMEOUT_MILLIS.
+     */
+    protected Session run(String... arguments) throws Exception
+    {
+        String[] hosts = { "--hosts", server.getHostname() + ":" + server.getPort() };
+        String[] all   = new String[arguments.length + hosts.length];
+
+        System.arraycopy(arguments, 0, all, 0, arguments.length);
+        System.arraycopy(hosts, 0, all, arguments.length, hosts.length);
+
+        final Session session   = new Session(all);
+        final Exception[] error = new Exception[1];
+
+        assertTrue(session.isValid());
+
+        Thread runner = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    new StressRunner(session).start();
+                }
+                catch (Exception ex)
+                {
+                    error[0] = ex;
+                }
+            }
+        });
+
+        runner.start();
+        runner.join(RUN_TIMEOUT_MILLIS);
+
+        if (runner.isAlive())
+        {
+            session.stop();
+            runner.join();
+            fail("Session did not finish: " + java.util.Arrays.toString(arguments));
+        }
+
+        if (error[0] != null)
+        {
+            throw error[0];
+        }
+
+        return session;
+    }
+
+    protected DBCollection collection()
+    {
+        return mongo.getDB("test").getCollection(Session.COLLECTION_NAME);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import com.mongodb.*;
+
+/**
+ * Runs insert workloads against a FakeMongoServer and checks which keys
+ * they leave in the collection.
+ */
+public class StressWorkerTest extends StressTestCase
+{
+    public void testLastBatchIsTrimmedToNumKeys() throws Exception
+    {
+        run("-o", "INSERT", "-n", "100", "-b", "30", "-t", "1", "-w", "SAFE");
+
+        assertEquals(100, collection().count());
+    }
+
+    public void testInsertsFillTheKeySpace() throws Exception
+    {
+        run("-o", "INSERT", "-n", "20000", "-b", "7", "-t", "8", "-w", "SAFE");
+
+        assertEquals(20000, collection().count());
+        assertEquals(0, collection().count(new BasicDBObject("_id", new BasicDBObject("$gte", KeyGenerator.toKey(20000)))));
+    }
+
+    public void testInsertsGoAboveEarlierRuns() throws Exception
+    {
+        run("-o", "INSERT", "--load", "-n", "1000", "-b", "10", "-t", "2");
+        collection().insert(new BasicDBObject("_id", KeyGenerator.toKey(5000)), WriteConcern.SAFE);
+
+        run("-W", "READ=1,INSERT=1", "-n", "400", "-t", "2", "-w", "SAFE");
+
+        assertEquals(0, collection().count(new BasicDBObject("_id", new BasicDBObject("$gte", KeyGenerator.toKey(1000)).append("$lt", KeyGenerator.toKey(5000)))));
+        assertTrue(collection().count(new BasicDBObject("_id", new BasicDBObject("$gt", KeyGenerator.toKey(5000)))) > 0);
+    }
+
+    public void testMixedWorkloadInsertsLeaveNoGaps() throws Exception
+    {
+        run("-W", "READ=1,INSERT=1", "-n", "1000", "-b", "3", "-t", "4", "-w", "SAFE");
+
+        long inserted = collection().count();
+
+        assertTrue(inserted > 0);
+        assertEquals(inserted, collection().count(new BasicDBObject("_id", new BasicDBObject("$gte", KeyGenerator.toKey(1000)))));
+        assertEquals(0, collection().count(new BasicDBObject("_id", new BasicDBObject("$gte", KeyGenerator.toKey(1000 + inserted)))));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import java.io.File;
+
+import com.mongodb.*;
+
+/**
+ * Records runs with --record, replays them with --replay and checks the
+ * replay wrote what the recording did.
+ */
+public class TraceLogTest extends StressTestCase
+{
+    private File trace;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        trace = File.createTempFile("mongostress", ".trace");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        trace.delete();
+        super.tearDown();
+    }
+
+    public void testReplayedBatchesInsertTheRecordedKeys() throws Exception
+    {
+        run("-o", "INSERT", "-n", "500", "-b", "10", "-t", "2", "-w", "SAFE", "--record", trace.getPath());
+        collection().drop();
+
+        run("--replay", trace.getPath(), "--replay-speed", "0", "-b", "10", "-w", "SAFE");
+
+        assertEquals(500, collection().count());
+
+        DBCursor cursor = collection().find();
+
+        while (cursor.hasNext())
+        {
+            long index = KeyGenerator.toIndex((String)cursor.next().get("_id"));
+
+            assertTrue(index >= 0 && index < 500);
+        }
+    }
+}
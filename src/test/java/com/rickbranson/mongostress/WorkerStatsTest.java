@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2011, Richard W. Branson 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.rickbranson.mongostress;
+
+import junit.framework.TestCase;
+
+public class WorkerStatsTest extends TestCase
+{
+    public void testIntervalHoldsRequestsDocumentsAndBytesTogether()
+    {
+        WorkerStats stats = new WorkerStats(1);
+
+        stats.recordRequest(0, 5, 500, 1000 * 1000);
+        stats.recordRequest(0, 3, 300, 2000 * 1000);
+        stats.swap();
+
+        assertEquals(2, stats.getIntervalHistogram(WorkerStats.LATENCY, 0).getTotalCount());
+        assertEquals(8, stats.getIntervalHistogram(WorkerStats.DOC_LATENCY, 0).getTotalCount());
+        assertEquals(800, stats.getIntervalBytes(0));
+
+        stats.swap();
+
+        assertEquals(0, stats.getIntervalHistogram(WorkerStats.LATENCY, 0).getTotalCount());
+        assertEquals(0, stats.getIntervalBytes(0));
+    }
+
+    public void testOutcomeSlotsOnlyKeepLatency()
+    {
+        WorkerStats stats = new WorkerStats(3, 1);
+
+        stats.recordRequest(2, 0, 1000 * 1000);
+        stats.swap();
+
+        assertEquals(1, stats.getIntervalHistogram(WorkerStats.LATENCY, 2).getTotalCount());
+        assertNull(stats.getIntervalHistogram(WorkerStats.SERVICE_TIME, 2));
+        assertNull(stats.getIntervalHistogram(WorkerStats.DOC_LATENCY, 1));
+        assertNotNull(stats.getIntervalHistogram(WorkerStats.POOL_WAIT, 0));
+    }
+}